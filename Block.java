@@ -1,79 +1,118 @@
 package blockchain;
 
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Date;
-import java.nio.charset.StandardCharsets;
 
 /**
  * Represents one block in the blockchain.
  * Each block contains:
- *  - the hash of the previous block
- *  - its own computed hash
- *  - the Base64-encoded image data
- *  - the image file name
- *  - the timestamp of creation
+ *  - a BlockHeader with the hash of the previous block, its own computed hash,
+ *    the image file name, the timestamp of creation and the payload length/digest
+ *  - a BlockPayload with the Base64-encoded image data, which may be loaded lazily
  */
 public class Block {
 
-    private final String previousHash;
-    private final String blockHash;
-    private final String imageData;
-    private final String imageName;
-    private final long timeStamp;
+    private final BlockHeader header;
+    private final BlockPayload payload;
 
     /**
      * Creates a new block containing the image data, previous hash, and image name.
      */
     public Block(String imageData, String previousHash, String imageName) {
-        this.imageData = imageData;
-        this.previousHash = previousHash;
-        this.imageName = imageName;
-        this.timeStamp = new Date().getTime(); // current system time
-        this.blockHash = calculateHash(); // compute block hash once upon creation
+        long timeStamp = new Date().getTime(); // current system time
+        String blockHash = BlockHasher.hash(previousHash, timeStamp, imageData); // compute block hash once upon creation
+        this.header = new BlockHeader(previousHash, blockHash, imageName, timeStamp,
+                utf8Length(imageData), BlockHasher.payloadDigest(imageData));
+        this.payload = BlockPayload.inMemory(imageData);
     }
 
     /**
-     * Calculates this block’s hash using SHA-256 of previousHash + timestamp + imageData.
+     * Creates a new block for an ingested image without building its Base64 text:
+     * the hash is streamed from the image bytes and the payload encodes on demand.
+     * @param payloadDigest the image's payload digest, see {@link IngestedImage#payloadDigest()}
      */
-    private String calculateHash() {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            String dataToHash = previousHash + timeStamp + imageData;
-            byte[] hash = digest.digest(dataToHash.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            throw new RuntimeException("Error calculating hash", e);
-        }
+    public static Block fromImage(IngestedImage image, String previousHash, byte[] payloadDigest) {
+        long timeStamp = new Date().getTime(); // current system time
+        String blockHash = BlockHasher.hash(previousHash, timeStamp, image.bytes());
+        BlockHeader header = new BlockHeader(previousHash, blockHash, image.getName(), timeStamp,
+                image.base64Length(), payloadDigest);
+        return new Block(header, image.asPayload());
+    }
+
+    /**
+     * Re-creates a block from its header and a (possibly lazy) payload.
+     */
+    Block(BlockHeader header, BlockPayload payload) {
+        this.header = header;
+        this.payload = payload;
+    }
+
+    /**
+     * @return the same block with its payload served from somewhere else
+     */
+    public Block withPayload(BlockPayload payload) {
+        return new Block(header, payload);
     }
 
     // ---------------------------
     // Getters
     // ---------------------------
 
+    public BlockHeader getHeader() {
+        return header;
+    }
+
     public String getBlockHash() {
-        return blockHash;
+        return header.getBlockHash();
     }
 
     public String getPreviousHash() {
-        return previousHash;
+        return header.getPreviousHash();
     }
 
+    /**
+     * @return the Base64 image data, loading it from the payload's source if needed
+     */
     public String getData() {
-        return imageData;
+        try {
+            return payload.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error loading payload of block " + header.getBlockHash(), e);
+        }
+    }
+
+    /**
+     * @return the UTF-8 bytes of the Base64 image data as a stream, without building the String where possible
+     */
+    public InputStream openData() throws IOException {
+        return payload.openStream();
     }
 
     public String getFileName() {
-        return imageName;
+        return header.getFileName();
     }
 
     public long getTimestamp() {
-        return timeStamp;
+        return header.getTimestamp();
+    }
+
+    private static long utf8Length(String s) {
+        if (s == null)
+            return 4; // "null"
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) length += 1;
+            else length += 3;
+        }
+        return length;
     }
 
     // ---------------------------
@@ -82,15 +121,15 @@ public class Block {
 
     /**
      * Returns a minimal JSON representation of this block (for easy debugging).
-     * Note: this is separate from the BlockJsonSerializer used in Main.java.
+     * Note: this is separate from BlockJsonSerializer.
      */
     public String toJson() {
         return "{"
-                + "\"imageName\":\"" + escape(imageName) + "\","
-                + "\"previousHash\":\"" + escape(previousHash) + "\","
-                + "\"blockHash\":\"" + escape(blockHash) + "\","
-                + "\"timestamp\":" + timeStamp + ","
-                + "\"imageData\":\"" + escape(imageData) + "\""
+                + "\"imageName\":\"" + escape(getFileName()) + "\","
+                + "\"previousHash\":\"" + escape(getPreviousHash()) + "\","
+                + "\"blockHash\":\"" + escape(getBlockHash()) + "\","
+                + "\"timestamp\":" + getTimestamp() + ","
+                + "\"imageData\":\"" + escape(getData()) + "\""
                 + "}";
     }
 
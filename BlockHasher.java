@@ -0,0 +1,197 @@
+package blockchain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes block hashes without building the {@code previousHash + timeStamp + imageData} string.
+ *
+ * The digest is fed incrementally through a small per-thread scratch buffer, and
+ * the per-thread {@link MessageDigest} is reused between blocks. The result is
+ * identical to SHA-256 over the UTF-8 bytes of the concatenated string, so hashes
+ * of existing chains are unchanged.
+ *
+ * Apart from the returned hex String nothing is allocated per call.
+ */
+public final class BlockHasher {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Multiple of 4 so that whole Base64 quanta always fit
+    private static final int SCRATCH_SIZE = 4096;
+
+    private static final ThreadLocal<BlockHasher> LOCAL = ThreadLocal.withInitial(BlockHasher::new);
+
+    private final MessageDigest digest;
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    // Raw bytes that encode to exactly one full scratch buffer of Base64
+    private final byte[] raw = new byte[SCRATCH_SIZE / 4 * 3];
+    private final byte[] out = new byte[32];
+    private final char[] hex = new char[64];
+
+    private BlockHasher() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Error calculating hash", e);
+        }
+    }
+
+    /**
+     * SHA-256 of previousHash + timeStamp + imageData, where imageData is the Base64 text.
+     */
+    public static String hash(String previousHash, long timeStamp, CharSequence imageData) {
+        BlockHasher h = LOCAL.get();
+        h.digest.reset();
+        h.updateUtf8(previousHash == null ? "null" : previousHash);
+        h.updateLong(timeStamp);
+        h.updateUtf8(imageData == null ? "null" : imageData);
+        return h.finish();
+    }
+
+    /**
+     * SHA-256 of previousHash + timeStamp + Base64(rawImage), encoding the image on the fly.
+     */
+    public static String hash(String previousHash, long timeStamp, byte[] rawImage) {
+        BlockHasher h = LOCAL.get();
+        h.digest.reset();
+        h.updateUtf8(previousHash == null ? "null" : previousHash);
+        h.updateLong(timeStamp);
+        h.updateBase64(rawImage, 0, rawImage.length);
+        return h.finish();
+    }
+
+    /**
+     * SHA-256 of previousHash + timeStamp + Base64(rawImage), reading the remaining bytes of the
+     * buffer (for example a mapped file) without changing its position.
+     */
+    public static String hash(String previousHash, long timeStamp, ByteBuffer rawImage) {
+        BlockHasher h = LOCAL.get();
+        h.digest.reset();
+        h.updateUtf8(previousHash == null ? "null" : previousHash);
+        h.updateLong(timeStamp);
+        h.updateBase64(rawImage.duplicate());
+        return h.finish();
+    }
+
+    /**
+     * SHA-256 of previousHash + timeStamp + imageData, reading the UTF-8 bytes of imageData from the
+     * stream (for example {@link Block#openData()}) as they are, without decoding them.
+     */
+    public static String hash(String previousHash, long timeStamp, InputStream imageData) throws IOException {
+        BlockHasher h = LOCAL.get();
+        h.digest.reset();
+        h.updateUtf8(previousHash == null ? "null" : previousHash);
+        h.updateLong(timeStamp);
+        int n;
+        while ((n = imageData.read(h.scratch)) >= 0)
+            h.digest.update(h.scratch, 0, n);
+        return h.finish();
+    }
+
+    /**
+     * Payload digest of a block whose image data is Base64(rawImage), without building the Base64 text.
+     */
+    public static byte[] payloadDigest(ByteBuffer rawImage) {
+        BlockHasher h = LOCAL.get();
+        h.digest.reset();
+        h.updateBase64(rawImage.duplicate());
+        return h.digest.digest();
+    }
+
+    /**
+     * SHA-256 of the UTF-8 bytes of the Base64 image data, used as the block header's payload digest.
+     */
+    public static byte[] payloadDigest(CharSequence imageData) {
+        BlockHasher h = LOCAL.get();
+        h.digest.reset();
+        h.updateUtf8(imageData == null ? "null" : imageData);
+        return h.digest.digest();
+    }
+
+    // ---------------------------
+    // Incremental encoders
+    // ---------------------------
+
+    private void updateUtf8(CharSequence s) {
+        byte[] buf = scratch;
+        int p = 0;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            if (p > buf.length - 4) {
+                digest.update(buf, 0, p);
+                p = 0;
+            }
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[p++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[p++] = (byte) (0xc0 | (c >> 6));
+                buf[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[p++] = (byte) (0xf0 | (cp >> 18));
+                buf[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[p++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // String.getBytes(UTF_8) replaces unpaired surrogates with '?'
+                buf[p++] = (byte) '?';
+            } else {
+                buf[p++] = (byte) (0xe0 | (c >> 12));
+                buf[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        digest.update(buf, 0, p);
+    }
+
+    // Same digits as Long.toString(value)
+    private void updateLong(long value) {
+        byte[] buf = scratch;
+        int p = 20;
+        boolean negative = value < 0;
+        do {
+            int d = (int) (value % 10);
+            buf[--p] = (byte) ('0' + (negative ? -d : d));
+            value /= 10;
+        } while (value != 0);
+        if (negative)
+            buf[--p] = '-';
+        digest.update(buf, p, 20 - p);
+    }
+
+    private void updateBase64(byte[] src, int off, int len) {
+        // 3 raw bytes become 4 Base64 bytes, so this many raw bytes fill the scratch buffer
+        int chunk = SCRATCH_SIZE / 4 * 3;
+        int end = off + len;
+        for (int i = off; i < end; i += chunk) {
+            int n = ImageUtil.encodeBase64(src, i, Math.min(chunk, end - i), scratch, 0);
+            digest.update(scratch, 0, n);
+        }
+    }
+
+    private void updateBase64(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            int n = Math.min(raw.length, src.remaining());
+            src.get(raw, 0, n);
+            digest.update(scratch, 0, ImageUtil.encodeBase64(raw, 0, n, scratch, 0));
+        }
+    }
+
+    private String finish() {
+        try {
+            digest.digest(out, 0, out.length);
+        } catch (DigestException e) {
+            throw new RuntimeException("Error calculating hash", e);
+        }
+        for (int i = 0; i < out.length; i++) {
+            hex[2 * i] = HEX[(out[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[out[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,73 @@
+package blockchain;
+
+import java.util.Arrays;
+
+/**
+ * The small, immutable part of a block that is always kept in memory.
+ * It holds:
+ *  - the hash of the previous block
+ *  - the block's own hash
+ *  - the image file name
+ *  - the timestamp of creation
+ *  - the length (in bytes) and SHA-256 digest of the Base64 image payload
+ *
+ * The payload itself lives in a {@link BlockPayload} and is only loaded on demand.
+ */
+public final class BlockHeader {
+
+    private final String previousHash;
+    private final String blockHash;
+    private final String imageName;
+    private final long timeStamp;
+    private final long payloadLength;
+    private final byte[] payloadDigest;
+
+    public BlockHeader(String previousHash, String blockHash, String imageName, long timeStamp,
+                       long payloadLength, byte[] payloadDigest) {
+        if (payloadDigest == null || payloadDigest.length != 32)
+            throw new IllegalArgumentException("payload digest must be a 32-byte SHA-256");
+        this.previousHash = previousHash;
+        this.blockHash = blockHash;
+        this.imageName = imageName;
+        this.timeStamp = timeStamp;
+        this.payloadLength = payloadLength;
+        this.payloadDigest = payloadDigest.clone();
+    }
+
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    public String getFileName() {
+        return imageName;
+    }
+
+    public long getTimestamp() {
+        return timeStamp;
+    }
+
+    /**
+     * @return length of the UTF-8 encoded Base64 payload
+     */
+    public long getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * @return SHA-256 of the UTF-8 encoded Base64 payload
+     */
+    public byte[] getPayloadDigest() {
+        return payloadDigest.clone();
+    }
+
+    /**
+     * @return true if the given digest is this header's payload digest
+     */
+    public boolean matchesPayloadDigest(byte[] digest) {
+        return Arrays.equals(payloadDigest, digest);
+    }
+}
@@ -0,0 +1,128 @@
+package blockchain;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Minimal JSON serializer for a Block.
+ * Replace with your preferred JSON lib (e.g., Gson/Jackson) if available.
+ *
+ * {@link #openJsonStream(Block)} produces exactly the bytes of {@link #toJson(Block)}
+ * but streams the image data from the block's payload, so the Base64 text and the
+ * JSON document are never built in memory.
+ */
+public final class BlockJsonSerializer {
+
+    private BlockJsonSerializer() {}
+
+    public static String toJson(Block b) {
+        String data = safe(b.getData());
+        return prefix(b) + data + "\"}";
+    }
+
+    /**
+     * @return the UTF-8 bytes of {@link #toJson(Block)} as a stream
+     */
+    public static InputStream openJsonStream(Block b) throws IOException {
+        InputStream prefix = new ByteArrayInputStream(prefix(b).getBytes(StandardCharsets.UTF_8));
+        InputStream data = new EscapingInputStream(b.openData());
+        InputStream suffix = new ByteArrayInputStream(new byte[]{'"', '}'});
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(prefix, data, suffix)));
+    }
+
+    private static String prefix(Block b) {
+        String prev = safe(b.getPreviousHash());
+        String name = safe(b.getFileName());
+        String hash = safe(b.getBlockHash());
+        long ts = b.getTimestamp();
+
+        return "{"
+                + "\"fileName\":\"" + name + "\","
+                + "\"previousHash\":\"" + prev + "\","
+                + "\"blockHash\":\"" + hash + "\","
+                + "\"timestamp\":" + ts + ","
+                + "\"data\":\"";
+    }
+
+    private static String safe(String s) {
+        if (s == null) return "";
+        // escape quotes/backslashes minimally for JSON
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Byte-level equivalent of safe(); both characters are ASCII, so UTF-8 sequences pass through untouched
+    private static final class EscapingInputStream extends FilterInputStream {
+        private int pending = -1;
+
+        EscapingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pending >= 0) {
+                int c = pending;
+                pending = -1;
+                return c;
+            }
+            int c = in.read();
+            if (c == '\\' || c == '"') {
+                pending = c;
+                return '\\';
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            int p = off;
+            int end = off + len;
+            if (pending >= 0) {
+                b[p++] = (byte) pending;
+                pending = -1;
+            }
+            // Read into the back half: even if every byte needs escaping, output never overtakes unread input
+            int room = (end - p) / 2;
+            if (room == 0) {
+                if (p > off)
+                    return p - off;
+                int c = read();
+                if (c < 0)
+                    return -1;
+                b[p] = (byte) c;
+                return 1;
+            }
+            int n = in.read(b, end - room, room);
+            if (n < 0)
+                return p > off ? p - off : -1;
+            for (int i = end - room, last = i + n; i < last; i++) {
+                byte c = b[i];
+                if (c == '\\' || c == '"')
+                    b[p++] = '\\';
+                b[p++] = c;
+            }
+            return p - off;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() >= 0)
+                skipped++;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
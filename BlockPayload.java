@@ -0,0 +1,73 @@
+package blockchain;
+
+import io.ipfs.multihash.Multihash;
+import ipfs.api.IPFS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The Base64 image content of a block, loaded only when it is asked for.
+ *
+ * Blocks read from a {@link ChainStore}, or added to a store-backed
+ * {@link Blockchain}, keep a payload that re-reads the image from the store, so
+ * the image content is not held on the heap for the lifetime of the chain.
+ */
+public interface BlockPayload {
+
+    /**
+     * @return the Base64-encoded image data
+     */
+    String load() throws IOException;
+
+    /**
+     * @return the UTF-8 bytes of the image data as a stream; sources that can
+     *         produce them without building the String override this
+     */
+    default InputStream openStream() throws IOException {
+        String data = load();
+        return new ByteArrayInputStream(data == null ? new byte[0] : data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Payload held on the heap; used for freshly created blocks.
+     */
+    static BlockPayload inMemory(String imageData) {
+        return () -> imageData;
+    }
+
+    /**
+     * Payload read back from the store at the given height on every load.
+     */
+    static BlockPayload stored(ChainStore store, int height) {
+        return new BlockPayload() {
+            @Override
+            public String load() throws IOException {
+                return store.readPayload(height);
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return store.openPayloadStream(height);
+            }
+        };
+    }
+
+    /**
+     * Payload fetched from IPFS, where {@code imageCid} is the CID of the original image bytes.
+     * The fetched content is checked against the header's length and digest before being returned.
+     */
+    static BlockPayload fromIpfs(IPFS ipfs, Multihash imageCid, BlockHeader header) {
+        return () -> {
+            String imageData = Base64.getEncoder().encodeToString(ipfs.cat(imageCid));
+            if (imageData.length() != header.getPayloadLength()
+                    || !header.matchesPayloadDigest(BlockHasher.payloadDigest(imageData)))
+                throw new IOException("Payload fetched from IPFS for block " + header.getBlockHash()
+                        + " does not match its header");
+            return imageData;
+        };
+    }
+}
@@ -1,26 +1,305 @@
 package blockchain;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class Blockchain {
-    // A list to store the chain of blocks
-    private List<Block> chain;
+    // A list to store the chain of blocks; for a store-backed chain, headers are read from the store on first use
+    private final List<Block> chain;
+    // Optional append-only store every new block is persisted to
+    private final ChainStore store;
+    // Optional verification checkpoints recorded next to the store
+    private final ChainCheckpoints checkpoints;
+    // Result of verifying the untrusted tail of the store on load, or null
+    private ChainVerifier.Report loadReport;
+
+    // Indexes:
+    //  - block hash -> height, kept up to date on every append; a store-backed chain asks the
+    //    store instead, which builds it from the index file alone
+    //  - image name -> latest height with that name, chained through previousWithSameName
+    //  - height -> timestamp, searched by binary search while timestamps are non-decreasing
+    // The last two are only brought up to date when queried, so loading a stored chain reads no headers
+    private final StringIntMap hashIndex = new StringIntMap();
+    private final StringIntMap nameIndex = new StringIntMap();
+    private int[] previousWithSameName = new int[16];
+    private long[] timestamps = new long[16];
+    private boolean timestampsSorted = true;
+    private int indexedHeight;
 
     // Constructor that initializes the blockchain with a genesis block
     public Blockchain() {
         chain = new ArrayList<>();  // Initialize the ArrayList to hold the chain
+        store = null;
+        checkpoints = null;
         // Add the genesis block to the blockchain with a previous hash of "0"
-        chain.add(new Block("Genesis Block", "0", "Genesis"));
+        append(new Block("Genesis Block", "0", "Genesis"));
+    }
+
+    // Constructor that continues the chain kept in the store, or starts a new one there
+    public Blockchain(ChainStore store) throws IOException {
+        this(store, null, null);
+    }
+
+    // Constructor that continues the chain kept in the store and verifies only the
+    // blocks added after the last trusted checkpoint
+    public Blockchain(ChainStore store, ChainCheckpoints checkpoints) throws IOException {
+        this(store, checkpoints, new ChainVerifier());
+    }
+
+    public Blockchain(ChainStore store, ChainCheckpoints checkpoints, ChainVerifier verifier) throws IOException {
+        this.store = store;
+        this.checkpoints = checkpoints;
+        this.chain = new StoredBlocks(store);
+        if (store.size() == 0) {
+            Block genesis = new Block("Genesis Block", "0", "Genesis");
+            int height = store.append(genesis);
+            append(genesis.withPayload(BlockPayload.stored(store, height)));
+        }
+        if (checkpoints != null && verifier != null) {
+            int trusted = checkpoints.lastTrustedHeight(store);
+            loadReport = verifier.verify(this, trusted + 1, chain.size());
+            if (!loadReport.isValid())
+                throw new IOException("Chain store failed verification: " + loadReport);
+            // Everything is verified now, so the next load can start from the tip
+            checkpoints.record(chain.size() - 1, getLatestBlock().getBlockHash());
+        }
     }
 
     // Method to add a new block to the blockchain
     public void addBlock(Block newBlock) {
-        chain.add(newBlock);  // Append the new block to the end of the chain
+        if (store != null) {
+            try {
+                int height = store.append(newBlock);  // Persist first so the chain never gets ahead of the store
+                // Keep only the header in memory; the image is re-read from the store on demand
+                append(newBlock.withPayload(BlockPayload.stored(store, height)));
+                if (checkpoints != null && checkpoints.isDue(height))
+                    checkpoints.record(height, newBlock.getBlockHash());
+                return;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error appending block to the chain store", e);
+            }
+        }
+        append(newBlock);  // Append the new block to the end of the chain
     }
 
-    // Getter method to retrieve the entire blockchain
+    // Getter method to retrieve the entire blockchain (read-only, use addBlock to extend it)
     public List<Block> getChain() {
-        return chain;  // Return the list representing the chain
+        return Collections.unmodifiableList(chain);  // Return the list representing the chain
+    }
+
+    // Getter method to retrieve the store backing this chain, or null if it is in memory only
+    public ChainStore getStore() {
+        return store;
+    }
+
+    // Getter method to retrieve the report of the verification done on load, or null if none was done
+    public ChainVerifier.Report getLoadReport() {
+        return loadReport;
+    }
+
+    // ---------------------------
+    // Queries
+    // ---------------------------
+
+    /**
+     * @return number of blocks, including the genesis block
+     */
+    public int size() {
+        return chain.size();
+    }
+
+    /**
+     * @return the block at the given height (0 is the genesis block)
+     */
+    public Block getBlock(int height) {
+        return chain.get(height);
+    }
+
+    /**
+     * @return the most recently added block
+     */
+    public Block getLatestBlock() {
+        return chain.get(chain.size() - 1);
+    }
+
+    /**
+     * @return the height of the block with the given hash, or -1 if it is not in the chain
+     */
+    public int heightOf(String blockHash) {
+        if (store == null)
+            return hashIndex.get(blockHash);
+        try {
+            return store.heightOf(blockHash);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading the chain store index", e);
+        }
+    }
+
+    /**
+     * @return the block with the given hash, or null if it is not in the chain
+     */
+    public Block getBlockByHash(String blockHash) {
+        int height = heightOf(blockHash);
+        return height < 0 ? null : chain.get(height);
+    }
+
+    /**
+     * @return heights of all blocks for the given image name, in ascending order
+     */
+    public int[] heightsOfImageName(String imageName) {
+        updateIndexes();
+        int count = 0;
+        for (int h = nameIndex.get(imageName); h >= 0; h = previousWithSameName[h])
+            count++;
+        int[] res = new int[count];
+        for (int h = nameIndex.get(imageName); h >= 0; h = previousWithSameName[h])
+            res[--count] = h;
+        return res;
+    }
+
+    /**
+     * @return all blocks for the given image name, in chain order
+     */
+    public List<Block> getBlocksByImageName(String imageName) {
+        return blocksAt(heightsOfImageName(imageName));
+    }
+
+    /**
+     * @return heights of all blocks whose timestamp is in [fromMillis, toMillis], in ascending order
+     */
+    public int[] heightsInTimeRange(long fromMillis, long toMillis) {
+        int size = updateIndexes();
+        if (fromMillis > toMillis)
+            return new int[0];
+        if (timestampsSorted) {
+            int start = firstHeightAfter(fromMillis, false, size);
+            int end = firstHeightAfter(toMillis, true, size);
+            int[] res = new int[end - start];
+            for (int i = 0; i < res.length; i++)
+                res[i] = start + i;
+            return res;
+        }
+        // A clock step backwards broke the ordering, fall back to a scan of the primitive array
+        int[] res = new int[size];
+        int n = 0;
+        for (int h = 0; h < size; h++) {
+            if (timestamps[h] >= fromMillis && timestamps[h] <= toMillis)
+                res[n++] = h;
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    /**
+     * @return all blocks whose timestamp is in [fromMillis, toMillis], in chain order
+     */
+    public List<Block> getBlocksInTimeRange(long fromMillis, long toMillis) {
+        return blocksAt(heightsInTimeRange(fromMillis, toMillis));
+    }
+
+    // ---------------------------
+    // Index maintenance
+    // ---------------------------
+
+    private void append(Block block) {
+        if (store == null)
+            hashIndex.put(block.getBlockHash(), chain.size());
+        chain.add(block);
+    }
+
+    // Indexes names and timestamps of the blocks added since the last query
+    // @return the number of blocks indexed
+    private int updateIndexes() {
+        int size = chain.size();
+        for (int height = indexedHeight; height < size; height++) {
+            if (height == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, height * 2);
+                previousWithSameName = Arrays.copyOf(previousWithSameName, height * 2);
+            }
+            Block block = chain.get(height);
+            long ts = block.getTimestamp();
+            if (height > 0 && ts < timestamps[height - 1])
+                timestampsSorted = false;
+            timestamps[height] = ts;
+
+            String name = block.getFileName();
+            previousWithSameName[height] = name == null ? StringIntMap.MISSING : nameIndex.put(name, height);
+        }
+        indexedHeight = size;
+        return size;
+    }
+
+    // First height in [0, size) whose timestamp is > value (or >= value when not inclusive)
+    private int firstHeightAfter(long value, boolean inclusive, int size) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] < value || (inclusive && timestamps[mid] == value))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private List<Block> blocksAt(int[] heights) {
+        List<Block> res = new ArrayList<>(heights.length);
+        for (int h : heights)
+            res.add(chain.get(h));
+        return res;
+    }
+
+    // The blocks of a store-backed chain, each header read from the store the first time it is asked for.
+    // Safe for the concurrent reads of ChainVerifier; appends are not concurrent with anything.
+    private static final class StoredBlocks extends AbstractList<Block> {
+        private final ChainStore store;
+        private Block[] blocks;
+        private int size;
+
+        StoredBlocks(ChainStore store) {
+            this.store = store;
+            this.size = store.size();
+            this.blocks = new Block[Math.max(16, size)];
+        }
+
+        @Override
+        public Block get(int height) {
+            Block block;
+            synchronized (this) {
+                if (height < 0 || height >= size)
+                    throw new IndexOutOfBoundsException("No block at height " + height + ", chain has " + size);
+                block = blocks[height];
+            }
+            if (block != null)
+                return block;
+            try {
+                // Only the header is read; the payload stays on disk until used
+                block = store.read(height);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading block " + height + " from the chain store", e);
+            }
+            synchronized (this) {
+                blocks[height] = block;
+            }
+            return block;
+        }
+
+        @Override
+        public synchronized int size() {
+            return size;
+        }
+
+        @Override
+        public synchronized boolean add(Block block) {
+            if (size == blocks.length)
+                blocks = Arrays.copyOf(blocks, size * 2);
+            blocks[size++] = block;
+            modCount++;
+            return true;
+        }
     }
 }
@@ -29,6 +29,12 @@ public class BlockchainUtil {
         }
     }
 
+    /**
+     * Saves the blockchain as text, writing the given Base64 string as every block's image data.
+     * @deprecated rewrites the whole chain on every call and repeats one image for every block;
+     *             use a {@link ChainStore}-backed {@link Blockchain}, which appends each block as it is added.
+     */
+    @Deprecated
     public static void saveBlockchainToFile64(String s, Blockchain blockchain, String filename) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
             // Iterate through each block in the blockchain
@@ -0,0 +1,310 @@
+package blockchain;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Verification checkpoints for a {@link ChainStore}, kept in a {@code <name>.ckpt} file next to it.
+ *
+ * A checkpoint says "every block up to this height was verified and the block at
+ * this height has this hash". It also carries a SHA-256 over the raw records of
+ * every block since the previous checkpoint, so changing any byte of those
+ * blocks (payload, previous hash, timestamp) breaks it. Each record then carries
+ * a digest over the previous record's digest, the height, the block hash and the
+ * segment digest, so the checkpoints form their own hash chain. With a key that
+ * digest is an HMAC-SHA256, which only the key holder can produce; without one
+ * it is a plain SHA-256 that anyone able to edit the store can recompute, so it
+ * only guards against accidental corruption and has to be asked for explicitly.
+ *
+ * On load, a store-backed Blockchain only needs to verify the blocks after the
+ * last checkpoint that is still valid and still matches the store; checking a
+ * checkpoint re-reads only its own segment, at most {@code interval} records.
+ * Edits to older segments are found by {@link #firstChangedHeight()}.
+ *
+ * Record layout (big-endian): int height, byte[32] blockHash, byte[32] segmentDigest, byte[32] digest
+ */
+public class ChainCheckpoints implements Closeable {
+
+    private static final byte[] MAGIC = "TFMCHCKP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int HASH_SIZE = 32;
+    private static final int RECORD_SIZE = 4 + HASH_SIZE + HASH_SIZE + HASH_SIZE;
+    private static final int MIN_KEY_SIZE = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ChainStore store;
+    private final int interval;
+    // Created once; every use is under the object's lock
+    private final Mac mac;
+    private final MessageDigest chainDigest;
+    private final MessageDigest segmentDigest;
+
+    private int count;
+    private int lastHeight = -1;
+    private byte[] lastDigest = new byte[HASH_SIZE];
+
+    private ChainCheckpoints(ChainStore store, int interval, byte[] key) throws IOException {
+        if (interval <= 0)
+            throw new IllegalArgumentException("checkpoint interval must be positive");
+        String dataName = store.getDataPath().getFileName().toString();
+        String base = dataName.endsWith(".chain") ? dataName.substring(0, dataName.length() - ".chain".length()) : dataName;
+        this.path = store.getDataPath().resolveSibling(base + ".ckpt");
+        this.store = store;
+        this.interval = interval;
+        try {
+            if (key != null) {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            } else {
+                mac = null;
+            }
+            chainDigest = MessageDigest.getInstance("SHA-256");
+            segmentDigest = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Error initializing checkpoint digests", e);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Checkpoints of a store that has since been re-created are meaningless
+            if (store.size() == 0 || channel.size() < HEADER_SIZE)
+                reset();
+            else
+                load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the checkpoints of the given store, signed with HMAC-SHA256 under {@code key},
+     * recording one every {@code interval} blocks.
+     * @param key at least 16 bytes, e.g. from {@link #loadOrCreateKey(Path)}
+     */
+    public static ChainCheckpoints open(ChainStore store, int interval, byte[] key) throws IOException {
+        if (key == null || key.length < MIN_KEY_SIZE)
+            throw new IllegalArgumentException("checkpoint key must have at least " + MIN_KEY_SIZE + " bytes");
+        return new ChainCheckpoints(store, interval, key);
+    }
+
+    /**
+     * Opens checkpoints hashed with plain SHA-256. They detect accidental corruption only:
+     * anyone who can edit the store can recompute them.
+     */
+    public static ChainCheckpoints openUnsigned(ChainStore store, int interval) throws IOException {
+        return new ChainCheckpoints(store, interval, null);
+    }
+
+    /**
+     * Reads the checkpoint key stored at {@code path}, or creates a random one there, readable only by
+     * its owner where the file system supports it. Keep it apart from the chain data it protects.
+     */
+    public static byte[] loadOrCreateKey(Path path) throws IOException {
+        if (Files.exists(path)) {
+            byte[] key = Files.readAllBytes(path);
+            if (key.length < MIN_KEY_SIZE)
+                throw new IOException("Checkpoint key " + path + " is too short");
+            return key;
+        }
+        byte[] key = new byte[HASH_SIZE];
+        new SecureRandom().nextBytes(key);
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.write(path, key, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system (e.g. Windows), where the user profile's ACLs apply
+        }
+        return key;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return true if a checkpoint should be recorded once the block at this height is added
+     */
+    public synchronized boolean isDue(int height) {
+        return height > lastHeight && height % interval == 0;
+    }
+
+    /**
+     * Records that every block up to {@code height} is verified and that the block there has {@code blockHash}.
+     * The blocks since the previous checkpoint must already be in the store.
+     */
+    public synchronized void record(int height, String blockHash) throws IOException {
+        if (height <= lastHeight)
+            return;
+        byte[] rawHash = ChainStore.hexToBytes(blockHash);
+        byte[] segment = segmentDigest(lastHeight + 1, height);
+        byte[] digest = digest(lastDigest, height, rawHash, segment);
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+        rec.putInt(height).put(rawHash).put(segment).put(digest).flip();
+        long position = HEADER_SIZE + (long) count * RECORD_SIZE;
+        while (rec.hasRemaining())
+            position += channel.write(rec, position);
+        channel.force(false);
+        count++;
+        lastHeight = height;
+        lastDigest = digest;
+    }
+
+    /**
+     * Re-hashes the raw records of every checkpointed segment, which catches edits below the
+     * last checkpoint that {@link #lastTrustedHeight(ChainStore)} does not look at. Reads each
+     * stored block once but decodes none of them.
+     * @return the first height of the earliest segment that no longer matches, or -1 if all do
+     */
+    public synchronized int firstChangedHeight() throws IOException {
+        int size = store.size();
+        ByteBuffer all = readRecords();
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            all.position(i * RECORD_SIZE);
+            int height = all.getInt();
+            byte[] segment = new byte[HASH_SIZE];
+            all.position(all.position() + HASH_SIZE);
+            all.get(segment);
+            if (height >= size || !MessageDigest.isEqual(segment, segmentDigest(from, height)))
+                return from;
+            from = height + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the highest checkpoint whose digest chain is intact and whose block hash and
+     * segment of raw records still match the store.
+     * @return the trusted height, or -1 if nothing can be trusted
+     */
+    public synchronized int lastTrustedHeight(ChainStore store) throws IOException {
+        if (store != this.store)
+            throw new IllegalArgumentException("Checkpoints belong to another store");
+        int size = store.size();
+        ByteBuffer all = readRecords();
+        for (int i = count - 1; i >= 0; i--) {
+            all.position(i * RECORD_SIZE);
+            int height = all.getInt();
+            byte[] rawHash = new byte[HASH_SIZE];
+            byte[] segment = new byte[HASH_SIZE];
+            all.get(rawHash).get(segment);
+            if (height >= size || !Arrays.equals(rawHash, ChainStore.hexToBytes(store.readHeader(height).getBlockHash())))
+                continue;
+            int from = i == 0 ? 0 : all.getInt((i - 1) * RECORD_SIZE) + 1;
+            if (MessageDigest.isEqual(segment, segmentDigest(from, height)))
+                return height;
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    // ---------------------------
+    // Loading
+    // ---------------------------
+
+    private void reset() throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putInt(VERSION).flip();
+        long position = 0;
+        while (header.hasRemaining())
+            position += channel.write(header, position);
+        channel.force(true);
+        count = 0;
+        lastHeight = -1;
+        lastDigest = new byte[HASH_SIZE];
+    }
+
+    // Replays the digest chain and drops everything from the first record that does not verify
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) {
+            reset();
+            return;
+        }
+        count = (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE);
+        ByteBuffer all = readRecords();
+        byte[] previous = new byte[HASH_SIZE];
+        int previousHeight = -1;
+        int valid = 0;
+        for (int i = 0; i < count; i++) {
+            int height = all.getInt();
+            byte[] rawHash = new byte[HASH_SIZE];
+            byte[] segment = new byte[HASH_SIZE];
+            byte[] stored = new byte[HASH_SIZE];
+            all.get(rawHash).get(segment).get(stored);
+            if (height <= previousHeight || !MessageDigest.isEqual(stored, digest(previous, height, rawHash, segment)))
+                break;
+            previous = stored;
+            previousHeight = height;
+            valid++;
+        }
+        count = valid;
+        lastDigest = previous;
+        lastHeight = previousHeight;
+        channel.truncate(HEADER_SIZE + (long) count * RECORD_SIZE);
+    }
+
+    private ByteBuffer readRecords() throws IOException {
+        ByteBuffer all = ByteBuffer.allocate(count * RECORD_SIZE);
+        readFully(all, HEADER_SIZE);
+        all.flip();
+        return all;
+    }
+
+    private void readFully(ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            int r = channel.read(b, position);
+            if (r < 0)
+                throw new IOException("Unexpected end of checkpoint file");
+            position += r;
+        }
+    }
+
+    // SHA-256 over the raw records of heights from to to, both inclusive
+    private byte[] segmentDigest(int from, int to) throws IOException {
+        segmentDigest.reset();
+        store.digestRecords(segmentDigest, from, to + 1);
+        return segmentDigest.digest();
+    }
+
+    private byte[] digest(byte[] previous, int height, byte[] rawHash, byte[] segment) {
+        byte[] heightBytes = ByteBuffer.allocate(4).putInt(height).array();
+        if (mac != null) {
+            mac.update(previous);
+            mac.update(heightBytes);
+            mac.update(rawHash);
+            mac.update(segment);
+            return mac.doFinal();
+        }
+        chainDigest.update(previous);
+        chainDigest.update(heightBytes);
+        chainDigest.update(rawHash);
+        chainDigest.update(segment);
+        return chainDigest.digest();
+    }
+}
@@ -0,0 +1,524 @@
+package blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary, append-only storage for a blockchain.
+ *
+ * Two files are kept side by side:
+ *  - {@code <name>.chain}: a header followed by length-prefixed block records
+ *  - {@code <name>.idx}:   a header followed by one fixed-size entry per block
+ *                          (record offset + raw 32-byte block hash)
+ *
+ * Appending a block writes one record and one index entry, so persisting is O(1)
+ * per block. Reads locate the record by height (directly from the index) or by
+ * hash. Opening an existing store only inspects the index and the tail of the
+ * data file, never the whole chain.
+ *
+ * Both files are mapped in fixed 16 MB windows, each one once it is completely
+ * written, so a growing file is never remapped and no mapping reaches the tail
+ * that a failed append cuts off (Windows refuses to truncate a mapped region).
+ * Reads from the incomplete last window, or across two windows, are copied
+ * with a positional read instead.
+ *
+ * Record layout (big-endian):
+ * <pre>
+ *   int   bodyLength
+ *   long  timestamp
+ *   int   n, byte[n] previousHash (UTF-8)
+ *   int   n, byte[n] blockHash    (UTF-8)
+ *   int   n, byte[n] imageName    (UTF-8)
+ *   byte[32]         payloadDigest
+ *   int   n, byte[n] imageData    (UTF-8)
+ * </pre>
+ * Everything before imageData forms the {@link BlockHeader}, so headers can be
+ * read without touching the image payload.
+ */
+public class ChainStore implements Closeable {
+
+    private static final byte[] DATA_MAGIC = "TFMCHAIN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDEX_MAGIC = "TFMCHIDX".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int HASH_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 8 + HASH_SIZE;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final boolean syncOnAppend;
+
+    private long dataSize;
+    private int count;
+    // Window i maps bytes [i * WINDOW_SIZE, (i + 1) * WINDOW_SIZE) of its file
+    private final List<MappedByteBuffer> dataWindows = new ArrayList<>();
+    private final List<MappedByteBuffer> indexWindows = new ArrayList<>();
+    private StringIntMap hashToHeight;
+    private ByteBuffer copyBuffer;
+
+    private ChainStore(Path base, boolean truncate, boolean syncOnAppend) throws IOException {
+        this.dataPath = Paths.get(base + ".chain");
+        this.indexPath = Paths.get(base + ".idx");
+        this.syncOnAppend = syncOnAppend;
+        if (dataPath.getParent() != null)
+            Files.createDirectories(dataPath.getParent());
+        StandardOpenOption[] options = truncate ?
+                new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING} :
+                new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        this.data = FileChannel.open(dataPath, options);
+        this.index = FileChannel.open(indexPath, options);
+        try {
+            initHeader(data, DATA_MAGIC);
+            initHeader(index, INDEX_MAGIC);
+            recover();
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            index.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the store at {@code base}, creating it if needed and keeping any blocks already in it.
+     */
+    public static ChainStore open(Path base) throws IOException {
+        return new ChainStore(base, false, true);
+    }
+
+    /**
+     * Opens the store at {@code base}, optionally without forcing each append to disk.
+     */
+    public static ChainStore open(Path base, boolean syncOnAppend) throws IOException {
+        return new ChainStore(base, false, syncOnAppend);
+    }
+
+    /**
+     * Creates an empty store at {@code base}, discarding any previous content.
+     */
+    public static ChainStore create(Path base) throws IOException {
+        return new ChainStore(base, true, true);
+    }
+
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    public Path getIndexPath() {
+        return indexPath;
+    }
+
+    /**
+     * @return number of blocks in the store
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Appends one block and, unless disabled, forces it to disk before returning.
+     * @return the height of the appended block
+     */
+    public synchronized int append(Block block) throws IOException {
+        BlockHeader header = block.getHeader();
+        byte[] prev = bytes(header.getPreviousHash());
+        byte[] hash = bytes(header.getBlockHash());
+        byte[] name = bytes(header.getFileName());
+        byte[] rawHash = hexToBytes(header.getBlockHash());
+
+        int headLength = 8 + 4 + prev.length + 4 + hash.length + 4 + name.length + HASH_SIZE + 4;
+        long imageLength = header.getPayloadLength();
+        if (imageLength > Integer.MAX_VALUE - headLength)
+            throw new IOException("Block payload too large for the chain store: " + imageLength + " bytes");
+        int bodyLength = headLength + (int) imageLength;
+        ByteBuffer head = ByteBuffer.allocate(4 + headLength);
+        head.putInt(bodyLength);
+        head.putLong(header.getTimestamp());
+        head.putInt(prev.length).put(prev);
+        head.putInt(hash.length).put(hash);
+        head.putInt(name.length).put(name);
+        head.put(header.getPayloadDigest());
+        head.putInt((int) imageLength);
+        head.flip();
+
+        long offset = dataSize;
+        try {
+            writeFully(data, new ByteBuffer[]{head}, offset);
+            // The payload is streamed, so a lazily encoded image never exists as a whole in memory
+            long written;
+            try (InputStream in = block.openData()) {
+                written = transfer(in, offset + 4 + headLength);
+            }
+            if (written != imageLength)
+                throw new IOException("Block payload is " + written + " bytes, header says " + imageLength);
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(offset).put(rawHash).flip();
+            writeFully(index, new ByteBuffer[]{entry}, indexOffset(count));
+
+            if (syncOnAppend) {
+                data.force(false);
+                index.force(false);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // Drop the partial record, so that neither the next append nor recovery finds it;
+            // it lies past every mapped window, so this works on Windows too
+            try {
+                data.truncate(offset);
+                index.truncate(indexOffset(count));
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        dataSize = offset + 4 + bodyLength;
+        if (hashToHeight != null)
+            hashToHeight.put(block.getBlockHash(), count);
+        return count++;
+    }
+
+    /**
+     * Reads the block at the given height (0 is the genesis block).
+     * Only the header is read; the payload is loaded from the store when it is used.
+     */
+    public Block read(int height) throws IOException {
+        return new Block(readHeader(height), BlockPayload.stored(this, height));
+    }
+
+    /**
+     * Reads the header of the block at the given height, without its payload.
+     */
+    public BlockHeader readHeader(int height) throws IOException {
+        ByteBuffer record = recordAt(height);
+        long timeStamp = record.getLong();
+        String previousHash = readString(record);
+        String blockHash = readString(record);
+        String imageName = readString(record);
+        byte[] payloadDigest = new byte[HASH_SIZE];
+        record.get(payloadDigest);
+        int payloadLength = record.getInt();
+        return new BlockHeader(previousHash, blockHash, imageName, timeStamp, payloadLength, payloadDigest);
+    }
+
+    /**
+     * Feeds the raw records of the blocks from {@code fromHeight} (inclusive) to {@code toHeight}
+     * (exclusive) to the digest, each preceded by its length, without decoding them.
+     */
+    void digestRecords(MessageDigest md, int fromHeight, int toHeight) throws IOException {
+        for (int height = fromHeight; height < toHeight; height++) {
+            ByteBuffer record = recordAt(height);
+            md.update(ByteBuffer.allocate(4).putInt(0, record.remaining()));
+            md.update(record);
+        }
+    }
+
+    /**
+     * Reads the Base64 image payload of the block at the given height.
+     */
+    public String readPayload(int height) throws IOException {
+        ByteBuffer record = recordAt(height);
+        record.position(8);
+        for (int i = 0; i < 3; i++)
+            record.position(record.position() + 4 + record.getInt(record.position()));
+        record.position(record.position() + HASH_SIZE);
+        return readString(record);
+    }
+
+    /**
+     * Opens the UTF-8 bytes of the Base64 image payload at the given height, streamed from the store.
+     */
+    public InputStream openPayloadStream(int height) throws IOException {
+        ByteBuffer record = recordAt(height);
+        record.position(8);
+        for (int i = 0; i < 3; i++)
+            record.position(record.position() + 4 + record.getInt(record.position()));
+        record.position(record.position() + HASH_SIZE);
+        int length = record.getInt();
+        record.limit(record.position() + length);
+        return ImageUtil.inputStream(record);
+    }
+
+    /**
+     * Reads the block with the given hash, or returns null if it is not in the store.
+     */
+    public synchronized Block read(String blockHash) throws IOException {
+        int height = heightOf(blockHash);
+        return height < 0 ? null : read(height);
+    }
+
+    /**
+     * @return the height of the block with the given hash, or -1 if it is not in the store
+     */
+    public synchronized int heightOf(String blockHash) throws IOException {
+        if (hashToHeight == null) {
+            // Built from the index only, the data file is not touched
+            StringIntMap map = new StringIntMap(count);
+            byte[] raw = new byte[HASH_SIZE];
+            for (int i = 0; i < count; i++) {
+                indexSlice(indexOffset(i) + 8, HASH_SIZE).get(raw);
+                map.put(bytesToHex(raw), i);
+            }
+            hashToHeight = map;
+        }
+        return hashToHeight.get(blockHash);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        dataWindows.clear();
+        indexWindows.clear();
+        try {
+            data.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    // ---------------------------
+    // Opening and recovery
+    // ---------------------------
+
+    private static void initHeader(FileChannel channel, byte[] magic) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(magic).putInt(VERSION).flip();
+            writeFully(channel, new ByteBuffer[]{header}, 0);
+            channel.force(true);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        byte[] found = new byte[magic.length];
+        header.get(found);
+        int version = header.getInt();
+        if (!Arrays.equals(found, magic))
+            throw new IOException("Not a chain store file (bad magic)");
+        if (version != VERSION)
+            throw new IOException("Unsupported chain store version: " + version);
+    }
+
+    /**
+     * Brings index and data back in line after an interrupted append.
+     * Only the last index entries and the unindexed tail of the data file are read.
+     */
+    private void recover() throws IOException {
+        long indexEntries = (index.size() - HEADER_SIZE) / INDEX_ENTRY_SIZE;
+        if (indexEntries > Integer.MAX_VALUE)
+            throw new IOException("Chain index too large");
+        count = (int) indexEntries;
+        long fileSize = data.size();
+
+        // Drop index entries whose record never made it to the data file
+        long end = HEADER_SIZE;
+        while (count > 0) {
+            long offset = readIndexOffset(count - 1);
+            long recordEnd = recordEnd(offset, fileSize);
+            if (recordEnd > 0) {
+                end = recordEnd;
+                break;
+            }
+            count--;
+        }
+        index.truncate(indexOffset(count));
+
+        // Index records that were written to the data file but not to the index
+        while (true) {
+            long recordEnd = recordEnd(end, fileSize);
+            if (recordEnd < 0)
+                break;
+            byte[] rawHash = readRawHashAt(end, recordEnd);
+            // A record that does not parse is the torn tail of a failed append, and is dropped with the rest
+            if (rawHash == null)
+                break;
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putLong(end).put(rawHash).flip();
+            writeFully(index, new ByteBuffer[]{entry}, indexOffset(count));
+            count++;
+            end = recordEnd;
+        }
+        data.truncate(end);
+        dataSize = end;
+        data.force(true);
+        index.force(true);
+    }
+
+    // @return the end offset of the complete record at offset, or -1 if it is missing or torn
+    private long recordEnd(long offset, long fileSize) throws IOException {
+        if (offset < HEADER_SIZE || offset + 4 > fileSize)
+            return -1;
+        ByteBuffer len = ByteBuffer.allocate(4);
+        readFully(data, len, offset);
+        int bodyLength = len.getInt(0);
+        long end = offset + 4 + bodyLength;
+        return bodyLength <= 0 || end > fileSize ? -1 : end;
+    }
+
+    // @return the raw block hash of the record spanning offset to end, or null if it cannot be parsed
+    private byte[] readRawHashAt(long offset, long end) throws IOException {
+        if (offset + 4 + 8 + 4 > end)
+            return null;
+        ByteBuffer len = ByteBuffer.allocate(4);
+        readFully(data, len, offset + 12);
+        int prevLength = len.getInt(0);
+        long hashAt = offset + 16 + (long) prevLength;
+        if (prevLength < 0 || hashAt + 4 > end)
+            return null;
+        len.clear();
+        readFully(data, len, hashAt);
+        int hashLength = len.getInt(0);
+        if (hashLength != 2 * HASH_SIZE || hashAt + 4 + hashLength > end)
+            return null;
+        ByteBuffer hash = ByteBuffer.allocate(hashLength);
+        readFully(data, hash, hashAt + 4);
+        try {
+            return hexToBytes(new String(hash.array(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private long readIndexOffset(int height) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(8);
+        readFully(index, b, indexOffset(height));
+        return b.getLong(0);
+    }
+
+    private static long indexOffset(int height) {
+        return HEADER_SIZE + (long) height * INDEX_ENTRY_SIZE;
+    }
+
+    // ---------------------------
+    // Windowed reads
+    // ---------------------------
+
+    // Only locating the record needs the lock; decoding the returned slice does not,
+    // so concurrent readers (e.g. ChainVerifier) are not serialized
+    private synchronized ByteBuffer recordAt(int height) throws IOException {
+        if (height < 0 || height >= count)
+            throw new IndexOutOfBoundsException("No block at height " + height + ", store has " + count);
+        return record(offsetOf(height));
+    }
+
+    private long offsetOf(int height) throws IOException {
+        return indexSlice(indexOffset(height), 8).getLong(0);
+    }
+
+    // @return a buffer over the record body
+    private ByteBuffer record(long offset) throws IOException {
+        int bodyLength = window(data, dataWindows, dataSize, offset, 4).getInt(0);
+        return window(data, dataWindows, dataSize, offset + 4, bodyLength);
+    }
+
+    private ByteBuffer indexSlice(long position, int length) throws IOException {
+        return window(index, indexWindows, indexOffset(count), position, length);
+    }
+
+    // @return the length bytes at position of a file whose first size bytes are written, from the
+    // window mapping them if it is complete, otherwise copied from the file
+    private static ByteBuffer window(FileChannel channel, List<MappedByteBuffer> windows, long size,
+                                     long position, int length) throws IOException {
+        int window = (int) (position / WINDOW_SIZE);
+        int start = (int) (position % WINDOW_SIZE);
+        if (start + (long) length <= WINDOW_SIZE && (window + 1L) * WINDOW_SIZE <= size) {
+            // Windows are mapped in order, and every one before a complete window is complete
+            while (windows.size() <= window)
+                windows.add(channel.map(FileChannel.MapMode.READ_ONLY, (long) windows.size() * WINDOW_SIZE, WINDOW_SIZE));
+            ByteBuffer b = windows.get(window).duplicate();
+            b.limit(start + length).position(start);
+            return b.slice();
+        }
+        ByteBuffer b = ByteBuffer.allocate(length);
+        readFully(channel, b, position);
+        b.flip();
+        return b;
+    }
+
+    private static String readString(ByteBuffer b) {
+        int length = b.getInt();
+        byte[] raw = new byte[length];
+        b.get(raw);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------
+    // Helpers
+    // ---------------------------
+
+    private static byte[] bytes(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] hexToBytes(String hex) {
+        if (hex == null || hex.length() != 2 * HASH_SIZE)
+            throw new IllegalArgumentException("Not a SHA-256 hex hash: " + hex);
+        byte[] res = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0)
+                throw new IllegalArgumentException("Not a SHA-256 hex hash: " + hex);
+            res[i] = (byte) ((hi << 4) | lo);
+        }
+        return res;
+    }
+
+    static String bytesToHex(byte[] raw) {
+        StringBuilder hexString = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, long position) throws IOException {
+        for (ByteBuffer b : buffers) {
+            while (b.hasRemaining())
+                position += channel.write(b, position);
+        }
+    }
+
+    // Copies the stream into the data file at position; only called under the append lock
+    private long transfer(InputStream in, long position) throws IOException {
+        if (copyBuffer == null)
+            copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long total = 0;
+        int n;
+        while ((n = in.read(copyBuffer.array(), 0, copyBuffer.capacity())) >= 0) {
+            copyBuffer.clear().limit(n);
+            while (copyBuffer.hasRemaining())
+                position += data.write(copyBuffer, position);
+            total += n;
+        }
+        copyBuffer.clear();
+        return total;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+        while (b.hasRemaining()) {
+            int r = channel.read(b, position);
+            if (r < 0)
+                throw new IOException("Unexpected end of chain store");
+            position += r;
+        }
+    }
+}
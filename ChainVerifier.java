@@ -0,0 +1,221 @@
+package blockchain;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies the integrity of a Blockchain in parallel.
+ *
+ * The chain is split into segments that are checked on a ForkJoin pool. Within a
+ * segment every block's hash is recomputed from its content and every
+ * {@code previousHash} is compared with the hash of the block before it. Where
+ * two segments meet, the first block of the right segment is linked against the
+ * last block of the left one, so the whole chain is covered.
+ *
+ * The report gives the first broken height (or -1) together with throughput.
+ */
+public class ChainVerifier {
+
+    /**
+     * Outcome of a verification run.
+     */
+    public static class Report {
+        public final int fromHeight;
+        public final int toHeight;
+        // -1 when every block in the range verified
+        public final int firstBrokenHeight;
+        public final String reason;
+        public final long blocksVerified;
+        public final long bytesHashed;
+        public final long elapsedNanos;
+
+        Report(int fromHeight, int toHeight, int firstBrokenHeight, String reason,
+               long blocksVerified, long bytesHashed, long elapsedNanos) {
+            this.fromHeight = fromHeight;
+            this.toHeight = toHeight;
+            this.firstBrokenHeight = firstBrokenHeight;
+            this.reason = reason;
+            this.blocksVerified = blocksVerified;
+            this.bytesHashed = bytesHashed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isValid() {
+            return firstBrokenHeight < 0;
+        }
+
+        public double blocksPerSecond() {
+            return elapsedNanos == 0 ? 0 : blocksVerified * 1e9 / elapsedNanos;
+        }
+
+        public double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytesHashed / (1024.0 * 1024.0) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            String status = isValid() ? "valid" : "broken at height " + firstBrokenHeight + " (" + reason + ")";
+            return String.format("blocks %d..%d %s: %d blocks, %.1f blocks/s, %.2f MB/s",
+                    fromHeight, toHeight - 1, status, blocksVerified, blocksPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    private static final int DEFAULT_SEGMENT_SIZE = 256;
+    private static final String GENESIS_PREVIOUS_HASH = "0";
+
+    private final ForkJoinPool pool;
+    private final int segmentSize;
+
+    public ChainVerifier() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+    }
+
+    public ChainVerifier(ForkJoinPool pool, int segmentSize) {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("segment size must be positive");
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Verifies the whole chain.
+     */
+    public Report verify(Blockchain blockchain) {
+        return verify(blockchain, 0, blockchain.size());
+    }
+
+    /**
+     * Verifies blocks in [fromHeight, toHeight). The first block is also linked
+     * against the block just before the range, which is assumed to be trusted.
+     */
+    public Report verify(Blockchain blockchain, int fromHeight, int toHeight) {
+        if (fromHeight < 0 || toHeight > blockchain.size() || fromHeight > toHeight)
+            throw new IndexOutOfBoundsException("Invalid range [" + fromHeight + ", " + toHeight + ") for chain of " + blockchain.size());
+        long t0 = System.nanoTime();
+        AtomicInteger firstBroken = new AtomicInteger(Integer.MAX_VALUE);
+        Segment res = fromHeight == toHeight ?
+                new Segment(fromHeight, toHeight) :
+                pool.invoke(new SegmentTask(blockchain, fromHeight, toHeight, firstBroken));
+        long elapsed = System.nanoTime() - t0;
+
+        int broken = res.brokenHeight;
+        String reason = res.reason;
+        // Link the range to the block before it, or the genesis block to "0"
+        if (fromHeight < toHeight && (broken < 0 || broken > fromHeight)) {
+            String expected = fromHeight == 0 ?
+                    GENESIS_PREVIOUS_HASH :
+                    blockchain.getBlock(fromHeight - 1).getBlockHash();
+            if (!expected.equals(res.firstPreviousHash)) {
+                broken = fromHeight;
+                reason = "previous hash does not match block " + (fromHeight - 1);
+            }
+        }
+        return new Report(fromHeight, toHeight, broken, reason, res.blocks, res.bytes, elapsed);
+    }
+
+    // Result of checking one contiguous range of blocks
+    private static final class Segment {
+        final int from;
+        final int to;
+        String firstPreviousHash;
+        String lastHash;
+        int brokenHeight = -1;
+        String reason;
+        long blocks;
+        long bytes;
+
+        Segment(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void broken(int height, String why) {
+            if (brokenHeight < 0 || height < brokenHeight) {
+                brokenHeight = height;
+                reason = why;
+            }
+        }
+    }
+
+    private final class SegmentTask extends RecursiveTask<Segment> {
+        private static final long serialVersionUID = 1L;
+
+        private final Blockchain blockchain;
+        private final int from;
+        private final int to;
+        private final AtomicInteger firstBroken;
+
+        SegmentTask(Blockchain blockchain, int from, int to, AtomicInteger firstBroken) {
+            this.blockchain = blockchain;
+            this.from = from;
+            this.to = to;
+            this.firstBroken = firstBroken;
+        }
+
+        @Override
+        protected Segment compute() {
+            if (to - from <= segmentSize)
+                return verifySegment();
+            int mid = (from + to) >>> 1;
+            SegmentTask left = new SegmentTask(blockchain, from, mid, firstBroken);
+            SegmentTask right = new SegmentTask(blockchain, mid, to, firstBroken);
+            right.fork();
+            Segment l = left.compute();
+            Segment r = right.join();
+            return merge(l, r);
+        }
+
+        private Segment verifySegment() {
+            Segment seg = new Segment(from, to);
+            String previous = null;
+            for (int h = from; h < to; h++) {
+                // A break was already found before this block, nothing here can be the first one
+                if (h > firstBroken.get())
+                    break;
+                Block block = blockchain.getBlock(h);
+                if (h == from)
+                    seg.firstPreviousHash = block.getPreviousHash();
+                else if (!previous.equals(block.getPreviousHash()))
+                    fail(seg, h, "previous hash does not match block " + (h - 1));
+                // Hashed straight from the stored bytes, the Base64 text is never built
+                try (InputStream data = block.openData()) {
+                    String recomputed = BlockHasher.hash(block.getPreviousHash(), block.getTimestamp(), data);
+                    seg.bytes += block.getHeader().getPayloadLength();
+                    if (!recomputed.equals(block.getBlockHash()))
+                        fail(seg, h, "block hash does not match its content");
+                } catch (IOException | RuntimeException e) {
+                    fail(seg, h, "payload could not be read: " + e.getMessage());
+                }
+                seg.blocks++;
+                previous = block.getBlockHash();
+            }
+            seg.lastHash = previous;
+            return seg;
+        }
+
+        private void fail(Segment seg, int height, String why) {
+            seg.broken(height, why);
+            firstBroken.accumulateAndGet(height, Math::min);
+        }
+
+        // Combines two adjacent segments and checks the link between them
+        private Segment merge(Segment l, Segment r) {
+            Segment res = new Segment(l.from, r.to);
+            res.firstPreviousHash = l.firstPreviousHash;
+            res.lastHash = r.lastHash != null ? r.lastHash : l.lastHash;
+            res.blocks = l.blocks + r.blocks;
+            res.bytes = l.bytes + r.bytes;
+            if (l.brokenHeight >= 0)
+                res.broken(l.brokenHeight, l.reason);
+            if (r.brokenHeight >= 0)
+                res.broken(r.brokenHeight, r.reason);
+            // Skipped segments (after an earlier break) have no hashes to compare
+            if (l.lastHash != null && r.firstPreviousHash != null && !l.lastHash.equals(r.firstPreviousHash))
+                fail(res, r.from, "previous hash does not match block " + (r.from - 1));
+            return res;
+        }
+    }
+}
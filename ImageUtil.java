@@ -1,15 +1,280 @@
 package blockchain;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class ImageUtil {
+    // Raw bytes read per chunk; a multiple of 3 so every chunk but the last encodes without padding
+    public static final int DEFAULT_CHUNK_SIZE = 48 * 1024;
+
+    private static final byte[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    // Per-thread read/encode buffers for the default chunk size, so encoding an image allocates nothing
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(() -> new Buffers(DEFAULT_CHUNK_SIZE));
+
+    private static final class Buffers {
+        final ByteBuffer direct;
+        final byte[] raw;
+        final byte[] encoded;
+
+        Buffers(int chunkSize) {
+            direct = ByteBuffer.allocateDirect(chunkSize);
+            raw = new byte[chunkSize];
+            encoded = new byte[base64Length(chunkSize)];
+        }
+    }
+
     // Method to encode an image file to a Base64 string
     public static String encodeFileToBase64Binary(String path) throws Exception {
-        // Read all bytes from the file at the specified path
-        byte[] bytes = Files.readAllBytes(new File(path).toPath());
-        // Encode the byte array into a Base64 string
-        return Base64.getEncoder().encodeToString(bytes);
+        // Stream the file into an exactly sized buffer instead of holding the raw bytes as well
+        Path file = new File(path).toPath();
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        long encodedLength = base64Length(size);
+        if (encodedLength > Integer.MAX_VALUE - 8)
+            throw new IOException("File too large to encode into a String: " + path);
+        ExactByteArrayOutputStream out = new ExactByteArrayOutputStream((int) encodedLength);
+        encodeFileToBase64(file, out);
+        // Base64 is ASCII, so this is a plain copy into the String
+        return new String(out.buf, 0, out.count, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Streams the Base64 encoding of a file to the sink, reading it through a FileChannel
+     * in fixed-size chunks. Memory use is bounded by the chunk size, whatever the file size.
+     * @return number of Base64 bytes written to the sink
+     */
+    public static long encodeFileToBase64(Path path, OutputStream sink) throws IOException {
+        return encodeFileToBase64(path, sink, BUFFERS.get());
+    }
+
+    /**
+     * Same as {@link #encodeFileToBase64(Path, OutputStream)} with a caller-chosen chunk size
+     * (rounded down to a multiple of 3).
+     */
+    public static long encodeFileToBase64(Path path, OutputStream sink, int chunkSize) throws IOException {
+        if (chunkSize < 3)
+            throw new IllegalArgumentException("chunk size must be at least 3");
+        int size = chunkSize - chunkSize % 3;
+        return encodeFileToBase64(path, sink, size == DEFAULT_CHUNK_SIZE ? BUFFERS.get() : new Buffers(size));
+    }
+
+    private static long encodeFileToBase64(Path path, OutputStream sink, Buffers buffers) throws IOException {
+        ByteBuffer direct = buffers.direct;
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            boolean eof = false;
+            while (!eof) {
+                // Fill the whole chunk so only the last one can need padding
+                direct.clear();
+                while (direct.hasRemaining()) {
+                    if (channel.read(direct) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                direct.flip();
+                int n = direct.remaining();
+                if (n == 0)
+                    break;
+                direct.get(buffers.raw, 0, n);
+                int e = encodeBase64(buffers.raw, 0, n, buffers.encoded, 0);
+                sink.write(buffers.encoded, 0, e);
+                written += e;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return length of the padded Base64 encoding of n bytes
+     */
+    public static int base64Length(int n) {
+        return (int) base64Length((long) n);
+    }
+
+    public static long base64Length(long n) {
+        return 4 * ((n + 2) / 3);
+    }
+
+    /**
+     * Encodes src[off, off+len) as standard padded Base64 into dst at dstOff.
+     * Padding is only emitted if len is not a multiple of 3, so consecutive chunks
+     * that are multiples of 3 concatenate to the encoding of the whole input.
+     * @return number of bytes written to dst
+     */
+    static int encodeBase64(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int p = dstOff;
+        int end = off + len;
+        int i = off;
+        for (; i + 3 <= end; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[p++] = BASE64[(bits >>> 18) & 0x3f];
+            dst[p++] = BASE64[(bits >>> 12) & 0x3f];
+            dst[p++] = BASE64[(bits >>> 6) & 0x3f];
+            dst[p++] = BASE64[bits & 0x3f];
+        }
+        int remaining = end - i;
+        if (remaining == 1) {
+            int bits = (src[i] & 0xff) << 16;
+            dst[p++] = BASE64[(bits >>> 18) & 0x3f];
+            dst[p++] = BASE64[(bits >>> 12) & 0x3f];
+            dst[p++] = '=';
+            dst[p++] = '=';
+        } else if (remaining == 2) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8;
+            dst[p++] = BASE64[(bits >>> 18) & 0x3f];
+            dst[p++] = BASE64[(bits >>> 12) & 0x3f];
+            dst[p++] = BASE64[(bits >>> 6) & 0x3f];
+            dst[p++] = '=';
+        }
+        return p - dstOff;
+    }
+
+    /**
+     * @return the Base64 encoding of the remaining bytes of the buffer, as a String
+     */
+    static String encodeBase64(ByteBuffer raw) {
+        long length = base64Length((long) raw.remaining());
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Image too large to encode into a String");
+        byte[] encoded = new byte[(int) length];
+        ByteBuffer src = raw.duplicate();
+        byte[] chunk = new byte[Math.min(DEFAULT_CHUNK_SIZE, src.remaining())];
+        int p = 0;
+        while (src.hasRemaining()) {
+            int n = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, n);
+            p += encodeBase64(chunk, 0, n, encoded, p);
+        }
+        return new String(encoded, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return a stream over the remaining bytes of the buffer; the buffer's position is not changed
+     */
+    static InputStream inputStream(ByteBuffer buffer) {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * @return a stream of the Base64 encoding of the remaining bytes of the buffer, produced on the fly
+     */
+    static InputStream base64InputStream(ByteBuffer raw) {
+        return new Base64EncodingInputStream(raw.duplicate());
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer src;
+
+        ByteBufferInputStream(ByteBuffer src) {
+            this.src = src;
+        }
+
+        @Override
+        public int read() {
+            return src.hasRemaining() ? src.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!src.hasRemaining())
+                return -1;
+            int n = Math.min(len, src.remaining());
+            src.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return src.remaining();
+        }
+    }
+
+    // Encodes straight into the caller's array; at most one 4-byte quantum is held back
+    private static final class Base64EncodingInputStream extends InputStream {
+        private final ByteBuffer src;
+        private final byte[] raw = new byte[3 * 1024];
+        private final byte[] pending = new byte[4];
+        private final byte[] single = new byte[1];
+        private int pendingPos;
+        private int pendingLen;
+
+        Base64EncodingInputStream(ByteBuffer src) {
+            this.src = src;
+        }
+
+        @Override
+        public int read() {
+            int r = read(single, 0, 1);
+            return r < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            int n = 0;
+            while (n < len) {
+                if (pendingPos < pendingLen) {
+                    b[off + n++] = pending[pendingPos++];
+                    continue;
+                }
+                int remaining = src.remaining();
+                if (remaining == 0)
+                    break;
+                int room = len - n;
+                if (room >= 4 && remaining >= 3) {
+                    int chunk = Math.min(Math.min(room / 4, remaining / 3) * 3, raw.length);
+                    src.get(raw, 0, chunk);
+                    n += encodeBase64(raw, 0, chunk, b, off + n);
+                } else {
+                    int chunk = Math.min(3, remaining);
+                    src.get(raw, 0, chunk);
+                    pendingLen = encodeBase64(raw, 0, chunk, pending, 0);
+                    pendingPos = 0;
+                }
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        @Override
+        public int available() {
+            long total = pendingLen - pendingPos + base64Length((long) src.remaining());
+            return (int) Math.min(Integer.MAX_VALUE, total);
+        }
+    }
+
+    // Pre-sized, unsynchronized sink that exposes its buffer without copying
+    private static final class ExactByteArrayOutputStream extends OutputStream {
+        final byte[] buf;
+        int count;
+
+        ExactByteArrayOutputStream(int size) {
+            buf = new byte[size];
+        }
+
+        @Override
+        public void write(int b) {
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
     }
 }
@@ -0,0 +1,113 @@
+package blockchain;
+
+import ipfs.api.NamedStreamable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One image read (memory-mapped) exactly once for ingestion.
+ *
+ * Every consumer works on a view of the same buffer instead of re-reading the file:
+ *  - Base64 encoding and the payload digest ({@link #openBase64Stream()}, {@link #payloadDigest()})
+ *  - block hashing ({@link Block#fromImage(IngestedImage, String, byte[])})
+ *  - the chain store and block JSON, through the block's payload ({@link #asPayload()})
+ *  - the IPFS multipart upload of the original bytes ({@link #asNamedStreamable()})
+ */
+public final class IngestedImage {
+
+    private final String name;
+    private final ByteBuffer bytes;
+
+    private IngestedImage(String name, ByteBuffer bytes) {
+        this.name = name;
+        this.bytes = bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * Maps the file into memory; this is the only time the file is opened.
+     */
+    public static IngestedImage map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Image too large to map: " + file);
+            return new IngestedImage(file.getName(), channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Wraps image bytes that are already in memory.
+     */
+    public static IngestedImage wrap(String name, byte[] bytes) {
+        return new IngestedImage(name, ByteBuffer.wrap(bytes));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return size of the original image in bytes
+     */
+    public int size() {
+        return bytes.remaining();
+    }
+
+    /**
+     * @return a read-only view of the original image bytes
+     */
+    public ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    /**
+     * @return length of the Base64 encoding of the image
+     */
+    public long base64Length() {
+        return ImageUtil.base64Length((long) size());
+    }
+
+    public InputStream openRawStream() {
+        return ImageUtil.inputStream(bytes);
+    }
+
+    public InputStream openBase64Stream() {
+        return ImageUtil.base64InputStream(bytes);
+    }
+
+    /**
+     * @return the block payload digest of this image, i.e. SHA-256 of its Base64 encoding
+     */
+    public byte[] payloadDigest() {
+        return BlockHasher.payloadDigest(bytes);
+    }
+
+    /**
+     * @return a block payload that encodes this image on demand
+     */
+    public BlockPayload asPayload() {
+        return new BlockPayload() {
+            @Override
+            public String load() throws IOException {
+                return ImageUtil.encodeBase64(bytes);
+            }
+
+            @Override
+            public InputStream openStream() {
+                return openBase64Stream();
+            }
+        };
+    }
+
+    /**
+     * @return the original image as an upload source, sent straight from the mapped buffer
+     */
+    public NamedStreamable asNamedStreamable() {
+        return new NamedStreamable.ByteBufferWrapper(name, bytes);
+    }
+}
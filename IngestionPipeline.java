@@ -0,0 +1,501 @@
+package blockchain;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+import ipfs.api.IPFS;
+import ipfs.api.MerkleNode;
+import ipfs.api.NamedStreamable;
+import ipfs.api.UnixFsHasher;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-stage ingestion pipeline for one dataset folder.
+ *
+ * Each image goes through four stages, each with its own worker pool and a
+ * bounded hand-off queue:
+ *  - read:   map the file into memory (the only time it is read from disk)
+ *  - encode: stream the Base64 encoding into the payload digest
+ *  - append: build the Block on top of the current tip and add it to the chain
+ *  - upload: add the original image and the block JSON to IPFS
+ *
+ * The Base64 text and the block JSON are never materialized: hashing, the chain
+ * store and both uploads stream from the same mapped {@link IngestedImage}.
+ *
+ * The append stage runs on a single thread and consumes images strictly in
+ * input order, so the resulting chain is identical to the serial loop. The
+ * other stages run in parallel, which lets IPFS round-trips overlap with disk
+ * reads and encoding. Results are handed back to the caller in input order.
+ *
+ * Back-pressure: at most {@code maxInFlight} images are inside the pipeline at
+ * any time, and every queue between stages is bounded.
+ *
+ * With a {@link KnownCids} set, the upload stage first computes each image's
+ * CID locally and skips the add entirely when the daemon already returned that
+ * CID in an earlier run. Adds then use the hasher's arguments, so that the
+ * daemon's CIDs match the local ones; a CID the daemon computes differently
+ * is reported and not recorded. Block JSON carries a fresh timestamp, so it
+ * is always added.
+ */
+public class IngestionPipeline {
+
+    /**
+     * Receives the outcome of each image, in input order, on the caller's thread.
+     */
+    public interface Listener {
+        void onIngested(Result result) throws IOException;
+    }
+
+    /**
+     * Per-image outcome and stage timings.
+     */
+    public static class Result {
+        public final int blockIndex;
+        public final String fileName;
+        public final Block block;
+        public final int imageBytes;
+        public final int blockBytes;
+        public final double encodeMs;
+        public final double addBlockMs;
+        public final double imageAddMs;
+        public final double blockAddMs;
+        // True when the image's CID was already known, so imageAddMs is the local hashing time, not an add
+        public final boolean imageAddSkipped;
+        // True when the daemon returned another CID than the one computed locally, so this image
+        // is never skipped; the hasher's settings do not match the daemon's
+        public final boolean imageCidMismatch;
+        public final String imageCid;
+        public final String blockCid;
+
+        private Result(Item item) {
+            this.blockIndex = item.index;
+            this.fileName = item.fileName;
+            this.block = item.block;
+            this.imageBytes = item.image == null ? 0 : item.image.size();
+            this.blockBytes = (int) item.blockBytes;
+            this.encodeMs = item.encodeMs;
+            this.addBlockMs = item.addBlockMs;
+            this.imageAddMs = item.imageAddMs;
+            this.blockAddMs = item.blockAddMs;
+            this.imageAddSkipped = item.imageAddSkipped;
+            this.imageCidMismatch = item.imageCidMismatch;
+            this.imageCid = item.imageCid;
+            this.blockCid = item.blockCid;
+        }
+    }
+
+    /*
+    Example usage:
+            IngestionPipeline.Config config = IngestionPipeline.Config.Builder.newInstance()
+                    .setReadWorkers(2)
+                    .setUploadWorkers(8)
+                    .build();
+     */
+    public static final class Config {
+        private final int readWorkers;
+        private final int encodeWorkers;
+        private final int uploadWorkers;
+        private final int queueCapacity;
+        private final int maxInFlight;
+        private final KnownCids knownCids;
+        private final UnixFsHasher hasher;
+
+        private Config(Builder builder) {
+            this.readWorkers = builder.readWorkers;
+            this.encodeWorkers = builder.encodeWorkers;
+            this.uploadWorkers = builder.uploadWorkers;
+            this.queueCapacity = builder.queueCapacity;
+            this.maxInFlight = builder.maxInFlight;
+            this.knownCids = builder.knownCids;
+            this.hasher = builder.hasher;
+        }
+
+        public static Config defaults() {
+            return Builder.newInstance().build();
+        }
+
+        public static class Builder {
+            private int readWorkers = 2;
+            private int encodeWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            private int uploadWorkers = 8;
+            private int queueCapacity = 16;
+            private int maxInFlight = 64;
+            private KnownCids knownCids;
+            private UnixFsHasher hasher = UnixFsHasher.Builder.newInstance().build();
+
+            private Builder() {}
+
+            public static Builder newInstance() {
+                return new Builder();
+            }
+
+            public Builder setReadWorkers(int readWorkers) {
+                this.readWorkers = positive(readWorkers, "read workers");
+                return this;
+            }
+
+            public Builder setEncodeWorkers(int encodeWorkers) {
+                this.encodeWorkers = positive(encodeWorkers, "encode workers");
+                return this;
+            }
+
+            public Builder setUploadWorkers(int uploadWorkers) {
+                this.uploadWorkers = positive(uploadWorkers, "upload workers");
+                return this;
+            }
+
+            public Builder setQueueCapacity(int queueCapacity) {
+                this.queueCapacity = positive(queueCapacity, "queue capacity");
+                return this;
+            }
+
+            public Builder setMaxInFlight(int maxInFlight) {
+                this.maxInFlight = positive(maxInFlight, "max in flight");
+                return this;
+            }
+
+            /**
+             * Skips adding content whose CID is in the set, and records the CIDs of new adds there.
+             */
+            public Builder setKnownCids(KnownCids knownCids) {
+                this.knownCids = knownCids;
+                return this;
+            }
+
+            /**
+             * Sets how CIDs are computed locally, and so how content is added, when known CIDs are used.
+             */
+            public Builder setHasher(UnixFsHasher hasher) {
+                if (hasher == null)
+                    throw new IllegalArgumentException("hasher must not be null");
+                this.hasher = hasher;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+
+            private static int positive(int value, String what) {
+                if (value <= 0)
+                    throw new IllegalArgumentException(what + " must be positive");
+                return value;
+            }
+        }
+    }
+
+    // Work unit passed between stages
+    private static final class Item {
+        final int index;
+        final File file;
+        final String fileName;
+        IngestedImage image;
+        byte[] payloadDigest;
+        Block block;
+        long blockBytes;
+        double encodeMs;
+        double addBlockMs;
+        double imageAddMs;
+        double blockAddMs;
+        boolean imageAddSkipped;
+        boolean imageCidMismatch;
+        String imageCid = "";
+        String blockCid = "";
+        Throwable error;
+
+        Item(int index, File file) {
+            this.index = index;
+            this.file = file;
+            this.fileName = file.getName();
+        }
+    }
+
+    private interface Step {
+        void process(Item item) throws Exception;
+    }
+
+    private final IPFS ipfs;
+    private final Config config;
+
+    public IngestionPipeline(IPFS ipfs) {
+        this(ipfs, Config.defaults());
+    }
+
+    public IngestionPipeline(IPFS ipfs, Config config) {
+        this.ipfs = ipfs;
+        this.config = config;
+    }
+
+    /**
+     * Ingests the given files, in order, into the blockchain.
+     * The listener is called once per file, in input order, as soon as the
+     * file and all files before it have been fully uploaded.
+     */
+    public void run(Blockchain blockchain, List<File> files, Listener listener) throws IOException {
+        int total = files.size();
+        if (total == 0)
+            return;
+
+        BlockingQueue<Item> toRead = new ArrayBlockingQueue<>(config.queueCapacity);
+        BlockingQueue<Item> toEncode = new ArrayBlockingQueue<>(config.queueCapacity);
+        BlockingQueue<Item> toAppend = new ArrayBlockingQueue<>(config.queueCapacity);
+        BlockingQueue<Item> toUpload = new ArrayBlockingQueue<>(config.queueCapacity);
+        BlockingQueue<Item> done = new ArrayBlockingQueue<>(config.queueCapacity);
+        Semaphore inFlight = new Semaphore(config.maxInFlight);
+
+        List<ExecutorService> pools = new ArrayList<>();
+        try {
+            startStage("read", config.readWorkers, toRead, toEncode, this::read, pools);
+            startStage("encode", config.encodeWorkers, toEncode, toAppend, this::encode, pools);
+            startAppendStage(blockchain, toAppend, toUpload, pools);
+            startStage("upload", config.uploadWorkers, toUpload, done, this::upload, pools);
+
+            // Feed the pipeline from a dedicated thread so the caller can drain results concurrently
+            ExecutorService feeder = newPool("feed", 1);
+            pools.add(feeder);
+            feeder.submit(() -> {
+                try {
+                    for (int i = 0; i < total; i++) {
+                        inFlight.acquire();
+                        toRead.put(new Item(i, files.get(i)));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            // Deliver results in input order
+            Map<Integer, Item> pending = new HashMap<>();
+            int next = 0;
+            while (next < total) {
+                Item item = done.take();
+                pending.put(item.index, item);
+                while (pending.containsKey(next)) {
+                    Item ready = pending.remove(next);
+                    inFlight.release();
+                    if (ready.error != null)
+                        throw new IOException("Error ingesting " + ready.fileName + ": " + ready.error.getMessage(), ready.error);
+                    listener.onIngested(new Result(ready));
+                    next++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ingestion interrupted", e);
+        } finally {
+            for (ExecutorService pool : pools)
+                pool.shutdownNow();
+        }
+    }
+
+    // ---------------------------
+    // Stages
+    // ---------------------------
+
+    private void read(Item item) throws IOException {
+        item.image = IngestedImage.map(item.file);
+    }
+
+    private void encode(Item item) {
+        long t0 = System.nanoTime();
+        item.payloadDigest = item.image.payloadDigest();
+        long t1 = System.nanoTime();
+        item.encodeMs = (t1 - t0) / 1_000_000.0;
+    }
+
+    private void append(Blockchain blockchain, Item item) {
+        Block newBlock = Block.fromImage(item.image, blockchain.getLatestBlock().getBlockHash(), item.payloadDigest);
+        long t0 = System.nanoTime();
+        blockchain.addBlock(newBlock);
+        long t1 = System.nanoTime();
+        item.addBlockMs = (t1 - t0) / 1_000_000.0;
+        item.block = newBlock;
+    }
+
+    private void upload(Item item) throws IOException {
+        long ti0 = System.nanoTime();
+        addImage(item);
+        long ti1 = System.nanoTime();
+        item.imageAddMs = (ti1 - ti0) / 1_000_000.0;
+
+        long tb0 = System.nanoTime();
+        BlockJsonUpload json = new BlockJsonUpload(item.fileName + ".block.json", item.block);
+        item.blockCid = firstCid(ipfs.add(json));
+        long tb1 = System.nanoTime();
+        item.blockAddMs = (tb1 - tb0) / 1_000_000.0;
+        item.blockBytes = json.bytesSent;
+    }
+
+    // Adds the image unless its locally computed CID is already known
+    private void addImage(Item item) throws IOException {
+        NamedStreamable content = item.image.asNamedStreamable();
+        KnownCids known = config.knownCids;
+        if (known == null) {
+            item.imageCid = firstCid(ipfs.add(content));
+            return;
+        }
+        Cid local = config.hasher.hash(content);
+        if (known.contains(local)) {
+            item.imageCid = local.toString();
+            item.imageAddSkipped = true;
+            return;
+        }
+        List<MerkleNode> nodes = ipfs.add(content, config.hasher.toAddArgs());
+        if (nodes == null || nodes.isEmpty())
+            return;
+        Multihash added = nodes.get(0).hash;
+        // Recording the daemon's CID when the local one differs would never match again, only grow the set
+        if (Arrays.equals(local.toBytes(), added.toBytes()))
+            known.add(added);
+        else
+            item.imageCidMismatch = true;
+        item.imageCid = added.toString();
+    }
+
+    // Streams the block JSON into the upload and counts its size for the report
+    private static final class BlockJsonUpload implements NamedStreamable {
+        private final String name;
+        private final Block block;
+        long bytesSent;
+
+        BlockJsonUpload(String name, Block block) {
+            this.name = name;
+            this.block = block;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            bytesSent = 0;
+            return new FilterInputStream(BlockJsonSerializer.openJsonStream(block)) {
+                @Override
+                public int read() throws IOException {
+                    int c = in.read();
+                    if (c >= 0)
+                        bytesSent++;
+                    return c;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = in.read(b, off, len);
+                    if (n > 0)
+                        bytesSent += n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public Optional<String> getName() {
+            return Optional.of(name);
+        }
+
+        @Override
+        public List<NamedStreamable> getChildren() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+    }
+
+    private static String firstCid(List<MerkleNode> nodes) {
+        return (nodes != null && !nodes.isEmpty()) ? nodes.get(0).hash.toString() : "";
+    }
+
+    // ---------------------------
+    // Stage plumbing
+    // ---------------------------
+
+    private void startStage(String name, int workers, BlockingQueue<Item> in, BlockingQueue<Item> out,
+                            Step step, List<ExecutorService> pools) {
+        ExecutorService pool = newPool(name, workers);
+        pools.add(pool);
+        for (int i = 0; i < workers; i++) {
+            pool.submit(() -> {
+                try {
+                    while (true) {
+                        Item item = in.take();
+                        if (item.error == null) {
+                            try {
+                                step.process(item);
+                            } catch (Throwable e) {
+                                // Errors too: the item must still reach the end, or run() waits for it forever
+                                item.error = e;
+                            }
+                        }
+                        out.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    /**
+     * The append stage is a single worker that re-orders its input so blocks
+     * are chained in exactly the order the files were given.
+     */
+    private void startAppendStage(Blockchain blockchain, BlockingQueue<Item> in, BlockingQueue<Item> out,
+                                  List<ExecutorService> pools) {
+        ExecutorService pool = newPool("append", 1);
+        pools.add(pool);
+        pool.submit(() -> {
+            Map<Integer, Item> pending = new HashMap<>();
+            int next = 0;
+            boolean failed = false;
+            try {
+                while (true) {
+                    Item item = in.take();
+                    pending.put(item.index, item);
+                    while (pending.containsKey(next)) {
+                        Item ready = pending.remove(next);
+                        // Once a block is missing, nothing after it can be chained
+                        if (failed && ready.error == null)
+                            ready.error = new IllegalStateException("an earlier block failed to be added");
+                        if (ready.error == null) {
+                            try {
+                                append(blockchain, ready);
+                            } catch (Throwable e) {
+                                ready.error = e;
+                            }
+                        }
+                        failed |= ready.error != null;
+                        out.put(ready);
+                        next++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private static ExecutorService newPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ingest-" + name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,144 @@
+package blockchain;
+
+import io.ipfs.multihash.Multihash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persistent set of CIDs already added to IPFS, so that content which is known to be there is not uploaded again.
+ *
+ * The set lives in memory and every addition is appended to a file, which is
+ * replayed on open. A record cut short by a crash is dropped on load. The
+ * file only grows; deleting it simply makes every CID unknown again.
+ *
+ * Only CIDs returned by the daemon should be added: a CID computed locally
+ * proves nothing about what the node actually holds.
+ *
+ * Record layout: byte length, byte[length] binary CID
+ */
+public class KnownCids implements Closeable {
+
+    private static final byte[] MAGIC = "TFMKCIDS".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_CID_SIZE = 255;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Set<ByteBuffer> cids = new HashSet<>();
+    private long end;
+
+    private KnownCids(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE)
+                reset();
+            else
+                load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the set stored at {@code path}, creating it if needed.
+     */
+    public static KnownCids open(Path path) throws IOException {
+        return new KnownCids(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized boolean contains(byte[] cid) {
+        return cids.contains(ByteBuffer.wrap(cid));
+    }
+
+    public boolean contains(Multihash cid) {
+        return contains(cid.toBytes());
+    }
+
+    /**
+     * Records the CID, appending it to the file if it is new.
+     * @return true if the CID was not known before
+     */
+    public synchronized boolean add(Multihash cid) throws IOException {
+        byte[] raw = cid.toBytes();
+        if (raw.length == 0 || raw.length > MAX_CID_SIZE)
+            throw new IllegalArgumentException("CID of " + raw.length + " bytes");
+        if (!cids.add(ByteBuffer.wrap(raw)))
+            return false;
+        ByteBuffer rec = ByteBuffer.allocate(1 + raw.length);
+        rec.put((byte) raw.length).put(raw).flip();
+        while (rec.hasRemaining())
+            end += channel.write(rec, end);
+        return true;
+    }
+
+    public synchronized int size() {
+        return cids.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ---------------------------
+    // Loading
+    // ---------------------------
+
+    private void reset() throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putInt(VERSION).flip();
+        long position = 0;
+        while (header.hasRemaining())
+            position += channel.write(header, position);
+        channel.force(true);
+        cids.clear();
+        end = HEADER_SIZE;
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        ByteBuffer all = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE));
+        while (all.hasRemaining() && channel.read(all, all.position()) >= 0);
+        all.flip();
+        byte[] magic = new byte[MAGIC.length];
+        all.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || all.getInt() != VERSION) {
+            reset();
+            return;
+        }
+        while (all.hasRemaining()) {
+            int length = all.get(all.position()) & 0xFF;
+            if (length == 0 || all.remaining() < 1 + length)
+                break;
+            all.get();
+            byte[] raw = new byte[length];
+            all.get(raw);
+            cids.add(ByteBuffer.wrap(raw));
+        }
+        end = all.position();
+        // Drops a torn record left by an interrupted write
+        if (end < size)
+            channel.truncate(end);
+    }
+}
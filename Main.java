@@ -10,17 +10,26 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Extends your Main:
+ *  - Runs each dataset through the IngestionPipeline (read, encode, chain, upload)
  *  - Uploads each original image file to IPFS and times it
  *  - Uploads each block (JSON bytes) to IPFS and times it
+ *  - Persists each block to a ChainStore as it is added
  *  - Uploads the final saved blockchain file to IPFS and times it
  */
 public class Main {
 
+    // Record a verification checkpoint every this many blocks
+    private static final int CHECKPOINT_INTERVAL = 100;
+
     public static void main(String[] args) {
         // Base directory for images
         String baseDir = "C:\\Users\\jesus.rodriguezm\\Documents\\Paperback Writer\\TFM Cabañas\\TFM\\TFM\\images\\";
@@ -47,7 +56,7 @@ public class Main {
 
             pw1.println("dataset,filename,encode_ms");
             pw2.println("dataset,filename,add_block_ms");
-            pw3.println("dataset,filename,bytes,add_ms,cid");
+            pw3.println("dataset,filename,bytes,add_ms,cid,skipped");
             pw4.println("dataset,filename,block_index,bytes,add_ms,cid");
             pw5.println("dataset,blockchain_filename,bytes,add_ms,cid");
 
@@ -57,95 +66,72 @@ public class Main {
             return;
         }
 
+        // Signs the checkpoints; it stays outside the chain files so editing them cannot forge one
+        byte[] checkpointKey;
+        try {
+            checkpointKey = ChainCheckpoints.loadOrCreateKey(Paths.get(resultDir + "checkpoint.key"));
+        } catch (IOException e) {
+            System.err.println("Error loading the checkpoint key: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
         // Connect to local IPFS daemon
         IPFS ipfs = new IPFS(new MultiAddress("/ip4/127.0.0.1/tcp/5001"));
+        // CIDs the daemon already holds, kept across runs so unchanged content is not uploaded again
+        KnownCids knownCids;
+        try {
+            knownCids = KnownCids.open(Paths.get(resultDir + "known_cids.bin"));
+        } catch (IOException e) {
+            System.err.println("Error opening known CIDs: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        IngestionPipeline pipeline = new IngestionPipeline(ipfs, IngestionPipeline.Config.Builder.newInstance()
+                .setKnownCids(knownCids)
+                .build());
 
-        String imageData = "";
         String[] datasets = {"Dataset 1", "Dataset 2", "Dataset 3"};
+        AtomicBoolean cidMismatchReported = new AtomicBoolean();
 
         for (String dataset : datasets) {
             System.out.println("Processing " + dataset);
-            try {
-                Blockchain myBlockchain = new Blockchain();
+            // Each run starts a fresh chain; blocks are persisted as they are added
+            Path chainBase = Paths.get(resultDir + dataset.replace(" ", "_") + "_blockchain");
+            try (ChainStore store = ChainStore.create(chainBase);
+                 ChainCheckpoints checkpoints = ChainCheckpoints.open(store, CHECKPOINT_INTERVAL, checkpointKey)) {
+                Blockchain myBlockchain = new Blockchain(store, checkpoints);
                 File folder = new File(baseDir + dataset);
                 File[] listOfFiles = folder.listFiles();
 
                 if (listOfFiles != null) {
                     Arrays.sort(listOfFiles, (a, b) -> a.getName().compareToIgnoreCase(b.getName()));
 
-                    int blockIndex = 0;
+                    List<File> images = new ArrayList<>();
                     for (File file : listOfFiles) {
-                        if (!file.isFile()) continue;
-
-                        String fileName = file.getName();
-
-                        // ---- 1) Measure Base64 encoding time (your existing metric) ----
-                        long t0 = System.nanoTime();
-                        imageData = ImageUtil.encodeFileToBase64Binary(file.getAbsolutePath());
-                        long t1 = System.nanoTime();
-                        double encodeMs = (t1 - t0) / 1_000_000.0;
-
-                        // ---- 2) Create and add block, measure add time (your existing metric) ----
-                        Block newBlock = new Block(
-                                imageData,
-                                myBlockchain.getChain().get(myBlockchain.getChain().size() - 1).getBlockHash(),
-                                fileName
-                        );
-                        long t2 = System.nanoTime();
-                        myBlockchain.addBlock(newBlock);
-                        long t3 = System.nanoTime();
-                        double addBlockMs = (t3 - t2) / 1_000_000.0;
-
-                        appendCsvLine(base64Csv, dataset + "," + escapeCsv(fileName) + "," + encodeMs);
-                        appendCsvLine(blockCsv,  dataset + "," + escapeCsv(fileName) + "," + addBlockMs);
-
-                        // ---- 3) Upload ORIGINAL IMAGE BYTES to IPFS and time it ----
-                        byte[] imageBytes = Files.readAllBytes(file.toPath());
-                        NamedStreamable.ByteArrayWrapper imgNs =
-                                new NamedStreamable.ByteArrayWrapper(fileName, imageBytes);
-
-                        long ti0 = System.nanoTime();
-                        List<MerkleNode> imgNodes = ipfs.add(imgNs);
-                        long ti1 = System.nanoTime();
-                        double imgAddMs = (ti1 - ti0) / 1_000_000.0;
-
-                        String imgCid = (imgNodes != null && !imgNodes.isEmpty())
-                                ? imgNodes.get(0).hash.toString()
-                                : "";
+                        if (file.isFile()) images.add(file);
+                    }
+
+                    // ---- 1-4) Encode, chain and upload every image through the pipeline ----
+                    pipeline.run(myBlockchain, images, r -> {
+                        String fileName = escapeCsv(r.fileName);
+                        if (r.imageCidMismatch && cidMismatchReported.compareAndSet(false, true))
+                            System.err.println("Local CID of " + r.fileName + " differs from the daemon's " + r.imageCid
+                                    + "; image adds are not skipped until the hasher matches the daemon's settings");
+
+                        appendCsvLine(base64Csv, dataset + "," + fileName + "," + r.encodeMs);
+                        appendCsvLine(blockCsv,  dataset + "," + fileName + "," + r.addBlockMs);
                         appendCsvLine(ipfsImageCsv,
-                                dataset + "," + escapeCsv(fileName) + "," + imageBytes.length + "," + imgAddMs + "," + imgCid);
-
-                        // ---- 4) Upload BLOCK (as JSON bytes) to IPFS and time it ----
-                        // If you have a JSON serializer already, use it; else quick minimal JSON
-                        // Example: serialize fields you care about:
-                        String blockJson = BlockJsonSerializer.toJson(newBlock); // implement below
-                        byte[] blockBytes = blockJson.getBytes("UTF-8");
-                        String blockAssetName = fileName + ".block.json";
-
-                        NamedStreamable.ByteArrayWrapper blockNs =
-                                new NamedStreamable.ByteArrayWrapper(blockAssetName, blockBytes);
-
-                        long tb0 = System.nanoTime();
-                        List<MerkleNode> blockNodes = ipfs.add(blockNs);
-                        long tb1 = System.nanoTime();
-                        double blockAddMs = (tb1 - tb0) / 1_000_000.0;
-
-                        String blockCid = (blockNodes != null && !blockNodes.isEmpty())
-                                ? blockNodes.get(0).hash.toString()
-                                : "";
+                                dataset + "," + fileName + "," + r.imageBytes + "," + r.imageAddMs + "," + r.imageCid + "," + r.imageAddSkipped);
                         appendCsvLine(ipfsBlockCsv,
-                                dataset + "," + escapeCsv(fileName) + "," + blockIndex + "," + blockBytes.length + "," + blockAddMs + "," + blockCid);
-
-                        blockIndex++;
-                    }
+                                dataset + "," + fileName + "," + r.blockIndex + "," + r.blockBytes + "," + r.blockAddMs + "," + r.blockCid);
+                    });
                 }
 
-                // ---- 5) Save the blockchain file (your existing call) ----
-                String outPath = resultDir + dataset.replace(" ", "_") + "_blockchain.txt";
-                BlockchainUtil.saveBlockchainToFile64(imageData, myBlockchain, outPath);
+                // ---- 5) The blockchain is already on disk: ChainStore appended every block ----
 
                 // ---- 6) Upload the blockchain file itself to IPFS and time it ----
-                File chainFile = new File(outPath);
+                File chainFile = store.getDataPath().toFile();
                 byte[] chainBytes = Files.readAllBytes(chainFile.toPath());
                 NamedStreamable.ByteArrayWrapper chainNs =
                         new NamedStreamable.ByteArrayWrapper(chainFile.getName(), chainBytes);
@@ -167,6 +153,12 @@ public class Main {
             }
         }
 
+        try {
+            knownCids.close();
+        } catch (IOException e) {
+            System.err.println("Error closing known CIDs: " + e.getMessage());
+        }
+
         System.out.println("Done. CSVs written to: " + base64Csv.getAbsolutePath() + " and " + blockCsv.getAbsolutePath());
         System.out.println("IPFS CSVs written to: " + ipfsImageCsv.getAbsolutePath()
                 + ", " + ipfsBlockCsv.getAbsolutePath()
@@ -192,34 +184,4 @@ public class Main {
         String v = value.replace("\"", "\"\"");
         return needsQuotes ? "\"" + v + "\"" : v;
     }
-
-    /**
-     * Minimal JSON serializer for a Block.
-     * Replace with your preferred JSON lib (e.g., Gson/Jackson) if available.
-     */
-    static class BlockJsonSerializer {
-        static String toJson(Block b) {
-            // Adjust according to your Block fields / getters
-            // Assuming: data (Base64 string), previousHash, fileName, blockHash, timestamp, nonce, etc.
-            String data = safe(b.getData());
-            String prev = safe(b.getPreviousHash());
-            String name = safe(b.getFileName());
-            String hash = safe(b.getBlockHash());
-            long ts = 0L;
-            try { ts = b.getTimestamp(); } catch (Throwable ignored) {}
-
-            return "{"
-                    + "\"fileName\":\"" + name + "\","
-                    + "\"previousHash\":\"" + prev + "\","
-                    + "\"blockHash\":\"" + hash + "\","
-                    + "\"timestamp\":" + ts + ","
-                    + "\"data\":\"" + data + "\""
-                    + "}";
-        }
-        private static String safe(String s) {
-            if (s == null) return "";
-            // escape quotes/backslashes minimally for JSON
-            return s.replace("\\", "\\\\").replace("\"", "\\\"");
-        }
-    }
 }
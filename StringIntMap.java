@@ -0,0 +1,106 @@
+package blockchain;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from String keys to non-negative int values.
+ *
+ * Keys and values live in two flat arrays (linear probing, load factor <= 0.5),
+ * so there is no boxed Integer and no entry object per mapping. Missing keys
+ * map to -1. Used by Blockchain and ChainStore for their block indexes.
+ */
+final class StringIntMap {
+
+    static final int MISSING = -1;
+
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    StringIntMap() {
+        this(16);
+    }
+
+    StringIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the value for key, or -1 if there is none
+     */
+    int get(String key) {
+        if (key == null)
+            return MISSING;
+        int mask = keys.length - 1;
+        for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null)
+                return MISSING;
+            if (k.equals(key))
+                return values[i];
+        }
+    }
+
+    /**
+     * Associates value with key, replacing any previous value.
+     * @return the previous value, or -1 if there was none
+     */
+    int put(String key, int value) {
+        if (key == null)
+            throw new IllegalArgumentException("null key");
+        if (value < 0)
+            throw new IllegalArgumentException("values must be non-negative");
+        if (2 * (size + 1) > keys.length)
+            resize(keys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return MISSING;
+            }
+            if (k.equals(key)) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            String k = oldKeys[j];
+            if (k == null)
+                continue;
+            int i = spread(k.hashCode()) & mask;
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+    }
+
+    // Fibonacci hashing, so similar hash codes do not cluster in the table
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
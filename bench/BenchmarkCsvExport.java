@@ -0,0 +1,161 @@
+package blockchain.bench;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks and writes the results as CSVs with the same columns Main
+ * writes, so the existing charts can plot them next to the nanoTime numbers.
+ *
+ * Build with {@code org.openjdk.jmh:jmh-core} and {@code jmh-generator-annprocess}
+ * (annotation processor) on the classpath, then run:
+ * <pre>
+ *   java -Djmh.csvDir=Results/jmh -cp ... blockchain.bench.BenchmarkCsvExport [JMH options]
+ * </pre>
+ * The CSV directory defaults to {@code Results/jmh/}. JMH options are the usual command
+ * line ones, e.g. {@code -p imageSize=65536 -f 1 BlockchainBenchmark}; without a
+ * benchmark pattern every benchmark in this package is run.
+ *
+ * Each benchmark becomes a "dataset" named {@code JMH <Class>.<method>} and each
+ * image size a "filename", with the average time per operation in milliseconds:
+ *  - base64_times.csv:          ImageUtilBenchmark
+ *  - block_times.csv:           BlockchainBenchmark
+ *  - ipfs_image_add_times.csv:  MultipartBenchmark.uploadImage
+ *  - ipfs_block_add_times.csv:  MultipartBenchmark.uploadBlockJson
+ *  - jmh_results.csv:           every benchmark, with its parameters and score error
+ */
+public class BenchmarkCsvExport {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        String resultDir = System.getProperty("jmh.csvDir", "Results" + File.separator + "jmh");
+        if (!resultDir.endsWith(File.separator))
+            resultDir += File.separator;
+
+        CommandLineOptions cli = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cli);
+        if (cli.getIncludes().isEmpty())
+            options.include(BenchmarkCsvExport.class.getPackage().getName().replace(".", "\\.") + "\\..*Benchmark");
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+        export(results, resultDir);
+        System.out.println("JMH CSVs written to: " + new File(resultDir).getAbsolutePath());
+    }
+
+    /**
+     * Writes the CSV files for the given results into {@code resultDir}, overwriting them.
+     */
+    public static void export(Collection<RunResult> results, String resultDir) throws IOException {
+        new File(resultDir).mkdirs();
+        Map<String, PrintWriter> writers = new HashMap<>();
+        try {
+            PrintWriter base64 = open(writers, resultDir, "base64_times.csv", "dataset,filename,encode_ms");
+            PrintWriter block = open(writers, resultDir, "block_times.csv", "dataset,filename,add_block_ms");
+            PrintWriter image = open(writers, resultDir, "ipfs_image_add_times.csv", "dataset,filename,bytes,add_ms,cid,skipped");
+            PrintWriter blockJson = open(writers, resultDir, "ipfs_block_add_times.csv", "dataset,filename,block_index,bytes,add_ms,cid");
+            PrintWriter all = open(writers, resultDir, "jmh_results.csv", "benchmark,mode,params,score,score_error,unit,score_ms");
+
+            for (RunResult result : results) {
+                BenchmarkParams params = result.getParams();
+                Result primary = result.getPrimaryResult();
+                String benchmark = params.getBenchmark();
+                String shortName = shortName(benchmark);
+                String dataset = "JMH " + shortName;
+                String size = params.getParam("imageSize");
+                String fileName = size == null ? "-" : BenchmarkImages.fileName(Integer.parseInt(size));
+                double ms = toMillis(primary.getScore(), primary.getScoreUnit());
+
+                all.println(escapeCsv(shortName) + "," + params.getMode().shortLabel() + "," + escapeCsv(paramString(params)) + ","
+                        + primary.getScore() + "," + primary.getScoreError() + "," + primary.getScoreUnit() + "," + ms);
+
+                if (shortName.startsWith("ImageUtilBenchmark."))
+                    base64.println(escapeCsv(dataset) + "," + fileName + "," + ms);
+                else if (shortName.startsWith("BlockchainBenchmark."))
+                    block.println(escapeCsv(dataset + withParam(params, "syncOnAppend")) + "," + fileName + "," + ms);
+                else if (shortName.equals("MultipartBenchmark.uploadImage"))
+                    image.println(escapeCsv(dataset + withParam(params, "transport")) + "," + fileName + "," + (size == null ? "" : size) + "," + ms + ",,false");
+                else if (shortName.equals("MultipartBenchmark.uploadBlockJson"))
+                    // The uploaded block is the genesis-like block 0 of its own chain
+                    blockJson.println(escapeCsv(dataset + withParam(params, "transport")) + "," + fileName + ",0,"
+                            + (size == null ? "" : blockJsonBytes(Integer.parseInt(size))) + "," + ms + ",");
+            }
+        } finally {
+            for (PrintWriter w : writers.values())
+                w.close();
+        }
+    }
+
+    // Rebuilds the JSON the benchmark uploaded; only the timestamp differs, and it has the same number of digits
+    private static int blockJsonBytes(int imageSize) {
+        String base64 = Base64.getEncoder().encodeToString(BenchmarkImages.imageBytes(imageSize));
+        return MultipartBenchmark.blockJson(base64, BenchmarkImages.fileName(imageSize)).length;
+    }
+
+    private static PrintWriter open(Map<String, PrintWriter> writers, String dir, String name, String header) throws IOException {
+        PrintWriter pw = new PrintWriter(new FileWriter(dir + name, false));
+        writers.put(name, pw);
+        pw.println(header);
+        return pw;
+    }
+
+    // "blockchain.bench.ImageUtilBenchmark.encodeFileToBase64Binary" -> "ImageUtilBenchmark.encodeFileToBase64Binary"
+    private static String shortName(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        int type = benchmark.lastIndexOf('.', method - 1);
+        return benchmark.substring(type + 1);
+    }
+
+    private static String paramString(BenchmarkParams params) {
+        StringBuilder b = new StringBuilder();
+        for (String key : params.getParamsKeys()) {
+            if (b.length() > 0)
+                b.append(';');
+            b.append(key).append('=').append(params.getParam(key));
+        }
+        return b.toString();
+    }
+
+    private static String withParam(BenchmarkParams params, String key) {
+        String value = params.getParam(key);
+        return value == null ? "" : " (" + key + "=" + value + ")";
+    }
+
+    // Scores are per operation (average time mode), e.g. "us/op"
+    private static double toMillis(double score, String unit) {
+        String timeUnit = unit.endsWith("/op") ? unit.substring(0, unit.length() - 3) : unit;
+        switch (timeUnit) {
+            case "ns":
+                return score / 1_000_000.0;
+            case "us":
+                return score / 1_000.0;
+            case "ms":
+                return score;
+            case "s":
+                return score * 1_000.0;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static String escapeCsv(String value) {
+        if (value == null) return "";
+        boolean needsQuotes = value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r");
+        String v = value.replace("\"", "\"\"");
+        return needsQuotes ? "\"" + v + "\"" : v;
+    }
+}
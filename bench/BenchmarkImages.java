@@ -0,0 +1,60 @@
+package blockchain.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Shared benchmark input: one random "image" of {@code imageSize} bytes, on disk and in memory.
+ *
+ * The default sizes bracket the images in the datasets (14 KB to a few hundred KB)
+ * and add a 1 MB case to show how each path scales.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkImages {
+
+    @Param({"16384", "65536", "262144", "1048576"})
+    public int imageSize;
+
+    public byte[] bytes;
+    public String base64;
+    public Path file;
+    public String fileName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bytes = imageBytes(imageSize);
+        base64 = Base64.getEncoder().encodeToString(bytes);
+        fileName = fileName(imageSize);
+        file = Files.createTempFile("bench-" + imageSize + "-", ".jpg");
+        Files.write(file, bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * @return the image content for the given size, the same in every fork and in the CSV export
+     */
+    static byte[] imageBytes(int imageSize) {
+        byte[] res = new byte[imageSize];
+        // Fixed seed so every fork hashes and encodes the same content
+        new Random(imageSize).nextBytes(res);
+        return res;
+    }
+
+    static String fileName(int imageSize) {
+        return "image_" + imageSize + ".jpg";
+    }
+}
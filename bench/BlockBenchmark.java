@@ -0,0 +1,94 @@
+package blockchain.bench;
+
+import blockchain.Block;
+import blockchain.BlockHasher;
+import blockchain.BlockJsonSerializer;
+import blockchain.IngestedImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block construction (which hashes the block), the hasher on its own and block JSON serialization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BlockBenchmark {
+
+    private static final String PREVIOUS_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @State(Scope.Benchmark)
+    public static class Blocks {
+        IngestedImage image;
+        byte[] payloadDigest;
+        Block block;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkImages images) {
+            image = IngestedImage.wrap(images.fileName, images.bytes);
+            payloadDigest = image.payloadDigest();
+            block = new Block(images.base64, PREVIOUS_HASH, images.fileName);
+        }
+    }
+
+    /**
+     * Block from an already encoded Base64 String.
+     */
+    @Benchmark
+    public Block newBlock(BenchmarkImages images) {
+        return new Block(images.base64, PREVIOUS_HASH, images.fileName);
+    }
+
+    /**
+     * Block from the raw image bytes, hashing the Base64 encoding on the fly.
+     */
+    @Benchmark
+    public Block blockFromImage(Blocks blocks) {
+        return Block.fromImage(blocks.image, PREVIOUS_HASH, blocks.payloadDigest);
+    }
+
+    @Benchmark
+    public String hashBase64String(BenchmarkImages images) {
+        return BlockHasher.hash(PREVIOUS_HASH, 1700000000000L, images.base64);
+    }
+
+    @Benchmark
+    public String hashRawBytes(BenchmarkImages images) {
+        return BlockHasher.hash(PREVIOUS_HASH, 1700000000000L, images.bytes);
+    }
+
+    @Benchmark
+    public String toJson(Blocks blocks) {
+        return BlockJsonSerializer.toJson(blocks.block);
+    }
+
+    @Benchmark
+    public long openJsonStream(Blocks blocks, Blackhole bh) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try (InputStream in = BlockJsonSerializer.openJsonStream(blocks.block)) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bh.consume(buffer);
+                total += n;
+            }
+        }
+        return total;
+    }
+}
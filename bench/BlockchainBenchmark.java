@@ -0,0 +1,82 @@
+package blockchain.bench;
+
+import blockchain.Block;
+import blockchain.Blockchain;
+import blockchain.ChainStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Blockchain.addBlock}, as measured by {@code add_block_ms} in block_times.csv.
+ *
+ * Like in Main, building the block is not part of the measured call: the same
+ * pre-built block is appended every time (addBlock does not check links). Chains
+ * are reset every iteration so their size stays comparable between iterations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BlockchainBenchmark {
+
+    @State(Scope.Thread)
+    public static class Chains {
+        /**
+         * Whether each append to the store is forced to disk, as {@link ChainStore#open(Path)} does.
+         */
+        @Param({"false", "true"})
+        public boolean syncOnAppend;
+
+        Path dir;
+        Blockchain memory;
+        ChainStore store;
+        Blockchain stored;
+        Block block;
+
+        @Setup(Level.Iteration)
+        public void setUp(BenchmarkImages images) throws IOException {
+            dir = Files.createTempDirectory("bench-chain");
+            memory = new Blockchain();
+            store = ChainStore.open(dir.resolve("chain"), syncOnAppend);
+            stored = new Blockchain(store);
+            block = new Block(images.base64, memory.getLatestBlock().getBlockHash(), images.fileName);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            store.close();
+            Files.deleteIfExists(store.getDataPath());
+            Files.deleteIfExists(store.getIndexPath());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Benchmark
+    public Blockchain addBlockInMemory(Chains chains) {
+        chains.memory.addBlock(chains.block);
+        return chains.memory;
+    }
+
+    @Benchmark
+    public Blockchain addBlockToStore(Chains chains) {
+        chains.stored.addBlock(chains.block);
+        return chains.stored;
+    }
+}
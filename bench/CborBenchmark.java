@@ -0,0 +1,110 @@
+package blockchain.bench;
+
+import ipfs.api.cbor.CborDecoder;
+import ipfs.api.cbor.CborEncoder;
+import ipfs.api.cbor.CborObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code CborEncoder} and {@code CborDecoder} on a block encoded as a dag-cbor map,
+ * both directly and through the {@code CborObject} tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CborBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Blocks {
+        CborObject tree;
+        byte[] encoded;
+        BenchmarkImages images;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkImages images) throws IOException {
+            this.images = images;
+            Map<String, CborObject> fields = new LinkedHashMap<>();
+            fields.put("fileName", new CborObject.CborString(images.fileName));
+            fields.put("previousHash", new CborObject.CborString("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"));
+            fields.put("timestamp", new CborObject.CborLong(1700000000000L));
+            fields.put("data", new CborObject.CborByteArray(images.bytes));
+            List<CborObject> tags = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                tags.add(new CborObject.CborString("tag" + i));
+            fields.put("tags", new CborObject.CborList(tags));
+            tree = CborObject.CborMap.build(fields);
+            encoded = tree.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeTree(Blocks blocks) {
+        return blocks.tree.toByteArray();
+    }
+
+    @Benchmark
+    public CborObject decodeTree(Blocks blocks) {
+        return CborObject.fromByteArray(blocks.encoded);
+    }
+
+    @Benchmark
+    public byte[] encoderDirect(Blocks blocks) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(blocks.encoded.length);
+        CborEncoder encoder = new CborEncoder(out);
+        encoder.writeMapStart(3);
+        encoder.writeTextString("data");
+        encoder.writeByteString(blocks.images.bytes);
+        encoder.writeTextString("fileName");
+        encoder.writeTextString(blocks.images.fileName);
+        encoder.writeTextString("timestamp");
+        encoder.writeInt(1700000000000L);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public long decoderDirect(Blocks blocks) throws IOException {
+        CborDecoder decoder = new CborDecoder(new ByteArrayInputStream(blocks.encoded));
+        long entries = decoder.readMapLength();
+        long bytes = 0;
+        for (long i = 0; i < entries; i++) {
+            String key = decoder.readTextString();
+            switch (key) {
+                case "data":
+                    bytes += decoder.readByteString().length;
+                    break;
+                case "timestamp":
+                    bytes += decoder.readInt();
+                    break;
+                case "tags":
+                    long n = decoder.readArrayLength();
+                    for (long j = 0; j < n; j++)
+                        bytes += decoder.readTextString().length();
+                    break;
+                default:
+                    bytes += decoder.readTextString().length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,72 @@
+package blockchain.bench;
+
+import blockchain.ImageUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 encoding of an image file, as measured by {@code encode_ms} in base64_times.csv.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ImageUtilBenchmark {
+
+    /**
+     * File to String, the call Main used per image.
+     */
+    @Benchmark
+    public String encodeFileToBase64Binary(BenchmarkImages images) throws Exception {
+        return ImageUtil.encodeFileToBase64Binary(images.file.toString());
+    }
+
+    /**
+     * File to sink in fixed-size chunks, without building the String.
+     */
+    @Benchmark
+    public long encodeFileToBase64Stream(BenchmarkImages images, Blackhole bh) throws IOException {
+        return ImageUtil.encodeFileToBase64(images.file, new BlackholeOutputStream(bh));
+    }
+
+    /**
+     * Baseline: read the whole file, then encode it with the JDK encoder.
+     */
+    @Benchmark
+    public String jdkReadAllBytesAndEncode(BenchmarkImages images) throws IOException {
+        return Base64.getEncoder().encodeToString(Files.readAllBytes(images.file));
+    }
+
+    // Sink that only lets the JIT believe the output is used
+    static final class BlackholeOutputStream extends OutputStream {
+        private final Blackhole bh;
+
+        BlackholeOutputStream(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b);
+            bh.consume(len);
+        }
+    }
+}
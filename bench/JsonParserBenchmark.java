@@ -0,0 +1,96 @@
+package blockchain.bench;
+
+import ipfs.api.JSONParser;
+import ipfs.api.JSONReader;
+import ipfs.api.MerkleNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code JSONParser} and the byte-level {@code JSONReader} on the responses the
+ * client parses most: add results (one JSON object per line) and object links
+ * listings. The JSONParser cases include decoding the response bytes to a String,
+ * as the client has to. The decode cases go on to build MerkleNodes, through Maps
+ * or straight from the bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class JsonParserBenchmark {
+
+    static final String ADD_LINE =
+            "{\"Name\":\"estadoActual0.jpg\",\"Hash\":\"QmXa9AcsxoZPQS2bGuAsR7EVmLJssaWbMMyThapbsM36hY\",\"Size\":\"14125\"}";
+
+    /**
+     * Number of files in the add response, or links in the listing.
+     */
+    @Param({"1", "64", "1024"})
+    public int entries;
+
+    byte[] addResponse;
+    byte[] linksResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder add = new StringBuilder();
+        StringBuilder links = new StringBuilder("{\"Hash\":\"QmYXbSWjiF8aAQDXo2d7fH8XgLwHmhtrsz5jNPa1BYCX6E\",\"Links\":[");
+        for (int i = 0; i < entries; i++) {
+            add.append(ADD_LINE.replace("estadoActual0", "estadoActual" + i)).append('\n');
+            if (i > 0)
+                links.append(',');
+            links.append("{\"Name\":\"estadoActual").append(i).append(".jpg\",")
+                    .append("\"Hash\":\"QmXa9AcsxoZPQS2bGuAsR7EVmLJssaWbMMyThapbsM36hY\",")
+                    .append("\"Size\":").append(14125 + i).append(",\"Type\":2}");
+        }
+        addResponse = add.toString().getBytes(StandardCharsets.UTF_8);
+        linksResponse = links.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Object> parseAddStream() {
+        return JSONParser.parseStream(new String(addResponse, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public Object parseLinks() {
+        return JSONParser.parse(new String(linksResponse, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public List<Object> readAddStream() {
+        return JSONReader.parseStream(addResponse);
+    }
+
+    @Benchmark
+    public Object readLinks() {
+        return JSONReader.parse(linksResponse);
+    }
+
+    @Benchmark
+    public MerkleNode decodeLinksFromMap() {
+        return MerkleNode.fromJSON(JSONReader.parse(linksResponse));
+    }
+
+    @Benchmark
+    public MerkleNode decodeLinksTyped() throws IOException {
+        return MerkleNode.read(new JSONReader(linksResponse));
+    }
+}
@@ -0,0 +1,101 @@
+package blockchain.bench;
+
+import blockchain.Block;
+import blockchain.BlockJsonSerializer;
+import ipfs.api.HttpClientTransport;
+import ipfs.api.HttpURLConnectionTransport;
+import ipfs.api.Multipart;
+import ipfs.api.NamedStreamable;
+import ipfs.api.Transport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multipart body generation and upload against {@link StubIpfsServer}, the client
+ * share of {@code add_ms} in ipfs_image_add_times.csv and ipfs_block_add_times.csv.
+ *
+ * {@code transport} compares a connection per call with the pooled keep-alive client.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MultipartBenchmark {
+
+    private static final Path ROOT = Paths.get("");
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"urlconnection", "httpclient"})
+        public String transport;
+
+        StubIpfsServer server;
+        Transport client;
+        String addUrl;
+        byte[] image;
+        String imageName;
+        byte[] blockJson;
+        String blockJsonName;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkImages images) throws IOException {
+            server = new StubIpfsServer();
+            client = transport.equals("httpclient") ?
+                    HttpClientTransport.Builder.newInstance().build() :
+                    new HttpURLConnectionTransport();
+            addUrl = server.apiUrl() + "add?stream-channels=true&w=false&n=false";
+            image = images.bytes;
+            imageName = images.fileName;
+            blockJson = blockJson(images.base64, images.fileName);
+            blockJsonName = images.fileName + ".block.json";
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public String uploadImage(Server server) throws IOException {
+        return upload(server, new NamedStreamable.ByteArrayWrapper(server.imageName, server.image));
+    }
+
+    @Benchmark
+    public String uploadBlockJson(Server server) throws IOException {
+        return upload(server, new NamedStreamable.ByteArrayWrapper(server.blockJsonName, server.blockJson));
+    }
+
+    /**
+     * @return the uploaded block JSON: a block on top of "0" wrapping the image, so the only block of its chain
+     */
+    static byte[] blockJson(String base64, String fileName) {
+        Block block = new Block(base64, "0", fileName);
+        return BlockJsonSerializer.toJson(block).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String upload(Server server, NamedStreamable file) throws IOException {
+        Multipart m = new Multipart(server.addUrl, "UTF-8", server.client);
+        m.addFilePart("file", ROOT, file);
+        return m.finish();
+    }
+}
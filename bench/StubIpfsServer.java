@@ -0,0 +1,72 @@
+package blockchain.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loopback HTTP server standing in for the IPFS daemon's {@code /api/v0/add}.
+ *
+ * It drains the request body and answers with a fixed add response, so a
+ * benchmark measures the client side (multipart body generation and the HTTP
+ * round-trip) rather than the daemon's hashing and storage.
+ */
+final class StubIpfsServer implements Closeable {
+
+    static final String ADD_RESPONSE =
+            "{\"Name\":\"image.jpg\",\"Hash\":\"QmXa9AcsxoZPQS2bGuAsR7EVmLJssaWbMMyThapbsM36hY\",\"Size\":\"14125\"}\n";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    StubIpfsServer() throws IOException {
+        // Without TCP_NODELAY every response stalls on delayed ACKs (about 40 ms on Linux)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "stub-ipfs");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/v0/", StubIpfsServer::handle);
+        server.start();
+    }
+
+    /**
+     * @return base URL of the API, e.g. {@code http://127.0.0.1:port/api/v0/}
+     */
+    String apiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v0/";
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+        byte[] body = ADD_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -78,6 +78,10 @@ public final class AddArgs {
             args.put("raw-leaves", TRUE);
             return this;
         }
+        public Builder setRawLeaves(boolean rawLeaves) {
+            args.put("raw-leaves", String.valueOf(rawLeaves));
+            return this;
+        }
         public Builder setNocopy() {
             args.put("nocopy", TRUE);
             return this;
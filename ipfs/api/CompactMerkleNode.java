@@ -0,0 +1,319 @@
+package ipfs.api;
+
+import io.ipfs.cid.*;
+import io.ipfs.multihash.Multihash;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A memory-lean form of {@link MerkleNode}, for holding very many nodes at once.
+ *
+ * Absent values are sentinels instead of Optionals: a null name or data, and -1
+ * for size and type. The hash is kept as the binary CID, and equals/hashCode
+ * work on those bytes. Passing a {@link CidTable} makes nodes that link to the
+ * same CID share one array.
+ *
+ * The arrays returned by {@link #getCid()} and {@link #getData()} are shared and must not be modified.
+ */
+public final class CompactMerkleNode {
+
+    private static final CompactMerkleNode[] NO_LINKS = new CompactMerkleNode[0];
+    // The size was given as a string, and maps back to MerkleNode.largeSize
+    private static final byte SIZE_QUOTED = 1;
+
+    private final byte[] cid;
+    private final int hash;
+    private final String name;
+    private final long size;
+    private final byte type;
+    private final byte flags;
+    private final byte[] data;
+    private final CompactMerkleNode[] links;
+
+    private CompactMerkleNode(byte[] cid, String name, long size, int type, byte flags, byte[] data, CompactMerkleNode[] links) {
+        this.cid = cid;
+        this.hash = Arrays.hashCode(cid);
+        this.name = name;
+        this.size = size;
+        this.type = (byte) type;
+        this.flags = flags;
+        this.data = data;
+        this.links = links.length == 0 ? NO_LINKS : links;
+    }
+
+    /**
+     * @param cids table to intern the CIDs of the node and its links in, or null
+     */
+    public static CompactMerkleNode of(MerkleNode node, CidTable cids) {
+        CompactMerkleNode[] links = new CompactMerkleNode[node.links.size()];
+        for (int i = 0; i < links.length; i++)
+            links[i] = of(node.links.get(i), cids);
+        long size = -1;
+        byte flags = 0;
+        if (node.size.isPresent()) {
+            size = node.size.get();
+        } else if (node.largeSize.isPresent()) {
+            size = parseSize(node.largeSize.get());
+            flags = SIZE_QUOTED;
+        }
+        return new CompactMerkleNode(intern(cids, node.hash.toBytes()), node.name.orElse(null), size,
+                node.type.orElse(-1), flags, node.data.orElse(null), links);
+    }
+
+    /**
+     * Decodes the next value of the reader, as {@link MerkleNode#read(JSONReader)} does, without
+     * creating the MerkleNode, its Optionals or its Multihash.
+     * @param cids table to intern the CIDs of the node and its links in, or null
+     */
+    public static CompactMerkleNode read(JSONReader r, CidTable cids) throws IOException {
+        JSONReader.Token t = r.next();
+        if (t == JSONReader.Token.STRING)
+            return new CompactMerkleNode(cidBytes(r.getString(), cids), null, -1, -1, (byte) 0, null, NO_LINKS);
+        if (t != JSONReader.Token.START_OBJECT)
+            throw new IllegalStateException("Incorrect json for MerkleNode: " + t);
+        String hash = null, key = null, cid = null, name = null;
+        Object rawSize = null, rawType = null, message = null;
+        List<CompactMerkleNode> links = Collections.emptyList();
+        byte[] data = null;
+        String field;
+        while ((field = r.nextName()) != null) {
+            switch (field) {
+                case "Hash":
+                    hash = (String) r.readValue();
+                    break;
+                case "Key":
+                    key = (String) r.readValue();
+                    break;
+                case "Cid":
+                    Object link = r.readValue();
+                    cid = link instanceof Map ? (String) ((Map) link).get("/") : (String) link;
+                    break;
+                case "Name":
+                    name = (String) r.readValue();
+                    break;
+                case "Size":
+                    rawSize = r.readValue();
+                    break;
+                case "Type":
+                    rawType = r.readValue();
+                    break;
+                case "Links":
+                    links = r.readArray(l -> read(l, cids));
+                    break;
+                case "Data":
+                    data = ((String) r.readValue()).getBytes();
+                    break;
+                case "Message":
+                    message = r.readValue();
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        if ("error".equals(rawType))
+            throw new IllegalStateException("Remote IPFS error: " + message);
+        if (hash == null)
+            hash = key;
+        if (hash == null)
+            hash = cid;
+        long size = -1;
+        byte flags = 0;
+        if (rawSize instanceof Number) {
+            size = ((Number) rawSize).longValue();
+        } else if (rawSize instanceof String) {
+            size = parseSize((String) rawSize);
+            flags = SIZE_QUOTED;
+        }
+        int type = rawType instanceof Integer ? (Integer) rawType : -1;
+        return new CompactMerkleNode(cidBytes(hash, cids), name, size, type, flags, data,
+                links.toArray(NO_LINKS));
+    }
+
+    /**
+     * @return the binary CID (or multihash, for CIDv0) of the node
+     */
+    public byte[] getCid() {
+        return cid;
+    }
+
+    /**
+     * Decodes the binary CID; this allocates, so prefer {@link #getCid()} for comparisons.
+     */
+    public Multihash getHash() {
+        return Cid.cast(cid);
+    }
+
+    /**
+     * @return the name, or null if the node has none
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the size in bytes, or -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the link type, or -1 if unknown
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the node's data, or null if it has none
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int linkCount() {
+        return links.length;
+    }
+
+    public CompactMerkleNode getLink(int index) {
+        return links[index];
+    }
+
+    public List<CompactMerkleNode> getLinks() {
+        return Collections.unmodifiableList(Arrays.asList(links));
+    }
+
+    /**
+     * Expands the node (and its links) back into a MerkleNode.
+     */
+    public MerkleNode toMerkleNode() {
+        List<MerkleNode> expanded = new ArrayList<>(links.length);
+        for (CompactMerkleNode link : links)
+            expanded.add(link.toMerkleNode());
+        boolean quoted = (flags & SIZE_QUOTED) != 0;
+        Optional<Integer> intSize = !quoted && size >= 0 && size <= Integer.MAX_VALUE ?
+                Optional.of((int) size) :
+                Optional.empty();
+        Optional<String> largeSize = quoted && size >= 0 ?
+                Optional.of(Long.toString(size)) :
+                Optional.empty();
+        return new MerkleNode(getHash(), Optional.ofNullable(name), intSize, largeSize,
+                type < 0 ? Optional.empty() : Optional.of((int) type), expanded, Optional.ofNullable(data));
+    }
+
+    @Override
+    public boolean equals(Object b) {
+        if (!(b instanceof CompactMerkleNode))
+            return false;
+        CompactMerkleNode other = (CompactMerkleNode) b;
+        // as with MerkleNode, the hash says it all
+        return hash == other.hash && (cid == other.cid || Arrays.equals(cid, other.cid));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return getHash() + "-" + (name == null ? "" : name);
+    }
+
+    private static long parseSize(String size) {
+        long res = 0;
+        if (size.isEmpty() || size.length() > 18)
+            return -1;
+        for (int i = 0; i < size.length(); i++) {
+            char c = size.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            res = res * 10 + (c - '0');
+        }
+        return res;
+    }
+
+    private static byte[] cidBytes(String hash, CidTable cids) {
+        if (hash == null)
+            throw new IllegalStateException("MerkleNode without a hash");
+        return intern(cids, Cid.decode(hash).toBytes());
+    }
+
+    private static byte[] intern(CidTable cids, byte[] cid) {
+        return cids == null ? cid : cids.intern(cid);
+    }
+
+    /**
+     * Interns binary CIDs, so that every node referring to the same CID holds the same array.
+     *
+     * Lookups hash the raw bytes into an open-addressing table, which grows
+     * as needed. The table keeps its entries until it is cleared. It is safe
+     * for concurrent use.
+     */
+    public static final class CidTable {
+        private byte[][] entries;
+        private int[] hashes;
+        private int size;
+
+        public CidTable() {
+            this(1024);
+        }
+
+        public CidTable(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+            entries = new byte[capacity][];
+            hashes = new int[capacity];
+        }
+
+        /**
+         * @return the table's array with the same content, adding {@code cid} itself if there is none yet
+         */
+        public synchronized byte[] intern(byte[] cid) {
+            int h = Arrays.hashCode(cid);
+            int mask = entries.length - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                byte[] e = entries[i];
+                if (e == null) {
+                    entries[i] = cid;
+                    hashes[i] = h;
+                    if (++size * 2 > entries.length)
+                        grow();
+                    return cid;
+                }
+                if (hashes[i] == h && Arrays.equals(e, cid))
+                    return e;
+            }
+        }
+
+        public synchronized byte[] intern(Multihash cid) {
+            return intern(cid.toBytes());
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        public synchronized void clear() {
+            Arrays.fill(entries, null);
+            size = 0;
+        }
+
+        private void grow() {
+            byte[][] oldEntries = entries;
+            int[] oldHashes = hashes;
+            entries = new byte[oldEntries.length * 2][];
+            hashes = new int[entries.length];
+            int mask = entries.length - 1;
+            for (int j = 0; j < oldEntries.length; j++) {
+                if (oldEntries[j] == null)
+                    continue;
+                int i = oldHashes[j] & mask;
+                while (entries[i] != null)
+                    i = (i + 1) & mask;
+                entries[i] = oldEntries[j];
+                hashes[i] = oldHashes[j];
+            }
+        }
+    }
+}
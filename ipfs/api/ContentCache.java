@@ -0,0 +1,458 @@
+package ipfs.api;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Read-through cache for content fetched by hash: {@code cat}, {@code get} and {@code block/get}.
+ *
+ * Content addressed by a hash never changes, so entries never go stale and
+ * are only dropped to stay within budget. The cache has two tiers:
+ *  - memory: an LRU map on the heap, bounded by total bytes
+ *  - disk (optional): one file per entry in a directory, also LRU within its own byte budget
+ * A hit in either tier never touches the network. A disk hit is promoted to memory.
+ *
+ * With verification on, content is rehashed against its CID whenever the CID
+ * allows it, both when it arrives from the daemon and when it is read back
+ * from disk. That covers block/get with SHA-256 multihashes, and cat of raw
+ * CIDv1 leaves. A block that does not match is never cached. From the daemon
+ * it fails the call; from disk the file is deleted and the content refetched.
+ *
+ * Arrays are copied in and out, so callers may modify what they are given.
+ * The cache is safe for concurrent use; concurrent misses of the same key
+ * each fetch the content.
+ */
+public final class ContentCache {
+
+    enum Kind {
+        CAT("cat"), GET("get"), BLOCK("block");
+
+        private final String dir;
+
+        Kind(String dir) {
+            this.dir = dir;
+        }
+    }
+
+    interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    private static final byte[] SHA2_256_PREFIX = {0x12, 0x20};
+
+    private final long maxMemoryBytes;
+    private final long maxEntryBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final boolean verify;
+
+    // Both maps are guarded by this
+    private final LinkedHashMap<Key, byte[]> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<Key, Long> disk = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+    private final AtomicLong verifyFailures = new AtomicLong();
+
+    private ContentCache(Builder builder) throws IOException {
+        this.maxMemoryBytes = builder.maxMemoryBytes;
+        this.maxEntryBytes = builder.maxEntryBytes >= 0 ? builder.maxEntryBytes : builder.maxMemoryBytes / 8;
+        this.directory = builder.directory;
+        this.maxDiskBytes = builder.maxDiskBytes;
+        this.verify = builder.verify;
+        if (directory != null)
+            loadDisk();
+    }
+
+    /**
+     * @return the content of {@code hash}, from the cache or else from {@code loader}, caching the result
+     */
+    byte[] get(Kind kind, Multihash hash, Loader loader) throws IOException {
+        Key key = new Key(kind, hash.toBytes());
+        byte[] cached = lookup(key, hash);
+        if (cached != null)
+            return cached.clone();
+        misses.incrementAndGet();
+        byte[] loaded = loader.load();
+        if (verify && !matches(kind, hash, loaded)) {
+            verifyFailures.incrementAndGet();
+            throw new IOException("Content of " + hash + " does not match its hash");
+        }
+        byte[] copy = loaded.clone();
+        putMemory(key, copy);
+        putDisk(key, copy);
+        return loaded;
+    }
+
+    /**
+     * @return the cached content of {@code hash}, or null without fetching it
+     */
+    byte[] peek(Kind kind, Multihash hash) throws IOException {
+        byte[] cached = lookup(new Key(kind, hash.toBytes()), hash);
+        return cached == null ? null : cached.clone();
+    }
+
+    public boolean isVerifying() {
+        return verify;
+    }
+
+    public Optional<Path> getDirectory() {
+        return Optional.ofNullable(directory);
+    }
+
+    /**
+     * Drops every memory entry; the disk tier is kept.
+     */
+    public synchronized void clearMemory() {
+        memory.clear();
+        memoryBytes = 0;
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(memoryHits.get(), diskHits.get(), misses.get(), memoryEvictions.get(),
+                    diskEvictions.get(), verifyFailures.get(), memory.size(), memoryBytes, disk.size(), diskBytes);
+        }
+    }
+
+    /**
+     * A snapshot of the cache's counters and occupancy.
+     */
+    public static final class Stats {
+        public final long memoryHits;
+        public final long diskHits;
+        public final long misses;
+        public final long memoryEvictions;
+        public final long diskEvictions;
+        public final long verifyFailures;
+        public final int memoryEntries;
+        public final long memoryBytes;
+        public final int diskEntries;
+        public final long diskBytes;
+
+        private Stats(long memoryHits, long diskHits, long misses, long memoryEvictions, long diskEvictions,
+                      long verifyFailures, int memoryEntries, long memoryBytes, int diskEntries, long diskBytes) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.memoryEvictions = memoryEvictions;
+            this.diskEvictions = diskEvictions;
+            this.verifyFailures = verifyFailures;
+            this.memoryEntries = memoryEntries;
+            this.memoryBytes = memoryBytes;
+            this.diskEntries = diskEntries;
+            this.diskBytes = diskBytes;
+        }
+
+        public double hitRate() {
+            long hits = memoryHits + diskHits;
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return "memoryHits=" + memoryHits + ", diskHits=" + diskHits + ", misses=" + misses
+                    + ", memoryEvictions=" + memoryEvictions + ", diskEvictions=" + diskEvictions
+                    + ", verifyFailures=" + verifyFailures
+                    + ", memory=" + memoryEntries + "/" + memoryBytes + "B"
+                    + ", disk=" + diskEntries + "/" + diskBytes + "B";
+        }
+    }
+
+    // ---------------------------
+    // Tiers
+    // ---------------------------
+
+    private byte[] lookup(Key key, Multihash hash) throws IOException {
+        synchronized (this) {
+            byte[] hit = memory.get(key);
+            if (hit != null) {
+                memoryHits.incrementAndGet();
+                return hit;
+            }
+            // get, not containsKey, so that the entry counts as used
+            if (disk.get(key) == null)
+                return null;
+        }
+        byte[] stored;
+        try {
+            stored = Files.readAllBytes(file(key));
+        } catch (NoSuchFileException e) {
+            removeDisk(key);
+            return null;
+        }
+        if (verify && !matches(key.kind, hash, stored)) {
+            verifyFailures.incrementAndGet();
+            removeDisk(key);
+            return null;
+        }
+        diskHits.incrementAndGet();
+        putMemory(key, stored);
+        return stored;
+    }
+
+    private synchronized void putMemory(Key key, byte[] content) {
+        if (content.length > maxEntryBytes || content.length > maxMemoryBytes)
+            return;
+        byte[] previous = memory.put(key, content);
+        memoryBytes += content.length - (previous == null ? 0 : previous.length);
+        Iterator<byte[]> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes) {
+            memoryBytes -= eldest.next().length;
+            eldest.remove();
+            memoryEvictions.incrementAndGet();
+        }
+    }
+
+    private void putDisk(Key key, byte[] content) throws IOException {
+        if (directory == null || content.length > maxDiskBytes)
+            return;
+        synchronized (this) {
+            if (disk.containsKey(key))
+                return;
+        }
+        Path target = file(key);
+        Files.createDirectories(target.getParent());
+        // Written aside and moved into place, so a reader never sees a partial file
+        Path tmp = Files.createTempFile(directory, key.kind.dir, ".tmp");
+        try {
+            Files.write(tmp, content);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        List<Key> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = disk.put(key, (long) content.length);
+            diskBytes += content.length - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<Key, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes) {
+                Map.Entry<Key, Long> e = eldest.next();
+                diskBytes -= e.getValue();
+                evicted.add(e.getKey());
+                eldest.remove();
+                diskEvictions.incrementAndGet();
+            }
+        }
+        for (Key k : evicted)
+            Files.deleteIfExists(file(k));
+    }
+
+    private void removeDisk(Key key) throws IOException {
+        synchronized (this) {
+            Long size = disk.remove(key);
+            if (size != null)
+                diskBytes -= size;
+        }
+        Files.deleteIfExists(file(key));
+    }
+
+    // Rebuilds the disk index, oldest files first, and trims it to budget
+    private void loadDisk() throws IOException {
+        Files.createDirectories(directory);
+        Map<Key, Long> sizes = new HashMap<>();
+        Map<Key, Long> modified = new HashMap<>();
+        for (Kind kind : Kind.values()) {
+            Path dir = directory.resolve(kind.dir);
+            if (!Files.isDirectory(dir))
+                continue;
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    byte[] bytes = fromHex(f.getFileName().toString());
+                    if (bytes == null || !Files.isRegularFile(f))
+                        continue;
+                    Key key = new Key(kind, bytes);
+                    sizes.put(key, Files.size(f));
+                    modified.put(key, Files.getLastModifiedTime(f).toMillis());
+                }
+            }
+        }
+        List<Key> keys = new ArrayList<>(sizes.keySet());
+        keys.sort(Comparator.comparingLong(modified::get));
+        for (Key key : keys) {
+            disk.put(key, sizes.get(key));
+            diskBytes += sizes.get(key);
+        }
+        Iterator<Key> eldest = disk.keySet().iterator();
+        while (diskBytes > maxDiskBytes) {
+            Key k = eldest.next();
+            diskBytes -= disk.get(k);
+            eldest.remove();
+            Files.deleteIfExists(file(k));
+        }
+        // Temporary files of writes that never completed
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path f : (Iterable<Path>) files::iterator)
+                if (f.getFileName().toString().endsWith(".tmp"))
+                    Files.deleteIfExists(f);
+        }
+    }
+
+    private Path file(Key key) {
+        return directory.resolve(key.kind.dir).resolve(toHex(key.hash));
+    }
+
+    // ---------------------------
+    // Verification
+    // ---------------------------
+
+    // True if the content hashes to the CID, or if the CID cannot be checked against this kind of content
+    private static boolean matches(Kind kind, Multihash hash, byte[] content) {
+        if (kind == Kind.GET)
+            return true;
+        byte[] bytes = hash.toBytes();
+        int multihashStart = 0;
+        if (hash instanceof Cid && ((Cid) hash).version > 0) {
+            // cat returns the block itself only for raw leaves
+            if (kind == Kind.CAT && ((Cid) hash).codec != Cid.Codec.Raw)
+                return true;
+            multihashStart = varintEnd(bytes, varintEnd(bytes, 0));
+        } else if (kind == Kind.CAT) {
+            return true;
+        }
+        if (bytes.length != multihashStart + 2 + 32
+                || bytes[multihashStart] != SHA2_256_PREFIX[0] || bytes[multihashStart + 1] != SHA2_256_PREFIX[1])
+            return true;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return Arrays.equals(digest, 0, 32, bytes, multihashStart + 2, bytes.length);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static int varintEnd(byte[] b, int pos) {
+        while (pos < b.length && (b[pos] & 0x80) != 0)
+            pos++;
+        return pos + 1;
+    }
+
+    private static String toHex(byte[] b) {
+        StringBuilder s = new StringBuilder(b.length * 2);
+        for (byte x : b)
+            s.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        return s.toString();
+    }
+
+    private static byte[] fromHex(String s) {
+        if (s.isEmpty() || s.length() % 2 != 0)
+            return null;
+        byte[] res = new byte[s.length() / 2];
+        for (int i = 0; i < res.length; i++) {
+            int hi = Character.digit(s.charAt(2 * i), 16);
+            int lo = Character.digit(s.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0)
+                return null;
+            res[i] = (byte) (hi << 4 | lo);
+        }
+        return res;
+    }
+
+    private static final class Key {
+        final Kind kind;
+        final byte[] hash;
+        final int hashCode;
+
+        Key(Kind kind, byte[] hash) {
+            this.kind = kind;
+            this.hash = hash;
+            this.hashCode = 31 * kind.hashCode() + Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return kind == other.kind && Arrays.equals(hash, other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /*
+    Example usage:
+            ContentCache cache = ContentCache.Builder.newInstance()
+                    .setMaxMemoryBytes(256L * 1024 * 1024)
+                    .setDirectory(Paths.get("ipfs-cache"))
+                    .setVerify(true)
+                    .build();
+            IPFS cached = ipfs.withCache(cache);
+     */
+    public static class Builder {
+        private long maxMemoryBytes = 64L * 1024 * 1024;
+        private long maxEntryBytes = -1;
+        private Path directory;
+        private long maxDiskBytes = Long.MAX_VALUE;
+        private boolean verify;
+
+        private Builder() {}
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Sets the memory tier's budget; 0 disables it.
+         */
+        public Builder setMaxMemoryBytes(long maxMemoryBytes) {
+            if (maxMemoryBytes < 0)
+                throw new IllegalArgumentException("max memory bytes must be zero or positive");
+            this.maxMemoryBytes = maxMemoryBytes;
+            return this;
+        }
+
+        /**
+         * Larger entries skip the memory tier (default: an eighth of its budget), so one big file cannot flush it.
+         */
+        public Builder setMaxEntryBytes(long maxEntryBytes) {
+            if (maxEntryBytes < 0)
+                throw new IllegalArgumentException("max entry bytes must be zero or positive");
+            this.maxEntryBytes = maxEntryBytes;
+            return this;
+        }
+
+        /**
+         * Enables the disk tier in the given directory, which is created if needed and reused across runs.
+         */
+        public Builder setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder setMaxDiskBytes(long maxDiskBytes) {
+            if (maxDiskBytes < 0)
+                throw new IllegalArgumentException("max disk bytes must be zero or positive");
+            this.maxDiskBytes = maxDiskBytes;
+            return this;
+        }
+
+        public Builder setVerify(boolean verify) {
+            this.verify = verify;
+            return this;
+        }
+
+        /**
+         * @throws IOException if the disk tier's directory cannot be created or read
+         */
+        public ContentCache build() throws IOException {
+            return new ContentCache(this);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package ipfs.api;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A {@link Transport} on one shared {@link HttpClient}.
+ *
+ * Connections to the daemon are kept alive and reused between calls instead of
+ * being set up for every request. At most {@code maxConnections} requests are in
+ * flight at once, which also bounds the number of pooled connections; further
+ * callers wait for a response to be closed, for up to the call's connect plus
+ * read timeout (or the transport's acquire timeout when the call has none), and
+ * then fail with an {@link InterruptedIOException}. Open-ended requests sent
+ * through {@link #postStream} have a separate limit of {@code maxStreams}, so
+ * subscriptions and undrained streams cannot starve short calls. All of the
+ * client's work runs on one executor owned by the transport.
+ *
+ * The HTTP version defaults to HTTP/1.1. With HTTP/2 the client multiplexes calls
+ * over a single connection where the daemon supports it (over TLS via ALPN) and
+ * falls back to HTTP/1.1 otherwise. The JDK client does not pipeline HTTP/1.1.
+ *
+ * The read timeout bounds the wait for the response headers; the body is then
+ * streamed without a timeout.
+ *
+ * Request bodies are pulled as buffers on demand. Content that is already in a
+ * buffer (byte arrays, mapped files) is handed to the client as views, anything
+ * else is read into chunks of the configured size.
+ */
+public class HttpClientTransport implements Transport {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 60_000;
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final Set<String> RESTRICTED_HEADERS =
+            new HashSet<>(Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private static volatile HttpClientTransport shared;
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Semaphore connections;
+    private final Semaphore streams;
+    private final int maxConnections;
+    private final int maxStreams;
+    private final int acquireTimeoutMillis;
+    private final int chunkSize;
+
+    private HttpClientTransport(Builder builder) {
+        this.maxConnections = builder.maxConnections;
+        this.maxStreams = builder.maxStreams;
+        this.acquireTimeoutMillis = builder.acquireTimeoutMillis;
+        this.chunkSize = builder.chunkSize;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(builder.threads, r -> {
+            Thread t = new Thread(r, "ipfs-http-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        HttpClient.Builder client = HttpClient.newBuilder()
+                .version(builder.version)
+                .executor(executor)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (builder.connectTimeoutMillis > 0)
+            client.connectTimeout(Duration.ofMillis(builder.connectTimeoutMillis));
+        this.client = client.build();
+        this.connections = new Semaphore(builder.maxConnections, true);
+        this.streams = new Semaphore(builder.maxStreams, true);
+    }
+
+    /**
+     * @return the transport with default settings shared by every IPFS instance that is not given one
+     */
+    public static HttpClientTransport shared() {
+        HttpClientTransport t = shared;
+        if (t == null) {
+            synchronized (HttpClientTransport.class) {
+                t = shared;
+                if (t == null)
+                    shared = t = Builder.newInstance().build();
+            }
+        }
+        return t;
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxStreams() {
+        return maxStreams;
+    }
+
+    @Override
+    public InputStream post(URL target, Map<String, String> headers, Body body,
+                            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        return send(target, headers, body, connectTimeoutMillis, readTimeoutMillis, connections);
+    }
+
+    @Override
+    public InputStream postStream(URL target, Map<String, String> headers, Body body,
+                                  int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        return send(target, headers, body, connectTimeoutMillis, readTimeoutMillis, streams);
+    }
+
+    private InputStream send(URL target, Map<String, String> headers, Body body,
+                             int connectTimeoutMillis, int readTimeoutMillis, Semaphore permits) throws IOException {
+        HttpRequest request = request(target, headers, body, readTimeoutMillis);
+        acquire(permits, target, connectTimeoutMillis, readTimeoutMillis);
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            permits.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted calling " + target);
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return checked(response, permits);
+    }
+
+    private void acquire(Semaphore permits, URL target, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        long waitMillis = (long) connectTimeoutMillis + readTimeoutMillis;
+        if (waitMillis == 0)
+            waitMillis = acquireTimeoutMillis;
+        try {
+            if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS))
+                throw new InterruptedIOException("Timed out after " + waitMillis + "ms waiting for a connection to " + target
+                        + "; every connection is held by a response that has not been closed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + target);
+        }
+    }
+
+    /**
+     * Builds the POST request for this transport's client.
+     */
+    HttpRequest request(URL target, Map<String, String> headers, Body body, int readTimeoutMillis) throws IOException {
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(target.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + target, e);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            // The client sets these itself and rejects them as request headers
+            if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT)))
+                request.header(header.getKey(), header.getValue());
+        }
+        if (readTimeoutMillis > 0)
+            request.timeout(Duration.ofMillis(readTimeoutMillis));
+        return request.POST(publisher(body)).build();
+    }
+
+    /**
+     * Throws for a non-2xx response, otherwise returns its body; the permit is released when the body is closed.
+     */
+    static InputStream checked(HttpResponse<InputStream> response, Semaphore permits) throws IOException {
+        InputStream in = new PermitInputStream(response.body(), permits);
+        int status = response.statusCode();
+        if (status / 100 != 2) {
+            String message;
+            try (InputStream err = in) {
+                message = new String(err.readAllBytes());
+            }
+            throw new StatusException(status, message, response.headers().allValues("Trailer"));
+        }
+        return in;
+    }
+
+    private HttpRequest.BodyPublisher publisher(Body body) {
+        long length = body.length();
+        if (length == 0)
+            return HttpRequest.BodyPublishers.noBody();
+        BufferPublisher buffers = new BufferPublisher(body, chunkSize);
+        return length > 0 ?
+                HttpRequest.BodyPublishers.fromPublisher(buffers, length) :
+                HttpRequest.BodyPublishers.fromPublisher(buffers);
+    }
+
+    /**
+     * Shuts down the executor; the shared transport lives as long as the JVM.
+     */
+    @Override
+    public void close() {
+        if (this != shared)
+            executor.shutdown();
+    }
+
+    // Releases the connection permit exactly once, when the body is closed or read to the end
+    private static final class PermitInputStream extends FilterInputStream {
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PermitInputStream(InputStream in, Semaphore permits) {
+            super(in);
+            this.permits = permits;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int r = super.read();
+            if (r < 0)
+                release();
+            return r;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int r = super.read(b, off, len);
+            if (r < 0)
+                release();
+            return r;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true))
+                permits.release();
+        }
+    }
+
+    // Publishes a body's buffers as the client asks for them; every subscription reads the body afresh
+    private static final class BufferPublisher implements Flow.Publisher<ByteBuffer> {
+        private final Body body;
+        private final int chunkSize;
+
+        BufferPublisher(Body body, int chunkSize) {
+            this.body = body;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            BufferSubscription subscription = new BufferSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+            subscription.open();
+        }
+
+        private final class BufferSubscription implements Flow.Subscription {
+            private final Flow.Subscriber<? super ByteBuffer> subscriber;
+            private final AtomicLong demand = new AtomicLong();
+            // Work-in-progress counter, so that request() called from onNext does not recurse
+            private final AtomicInteger wip = new AtomicInteger();
+            private volatile boolean done;
+            private volatile boolean opened;
+            private Transport.BufferSource source;
+
+            BufferSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                this.subscriber = subscriber;
+            }
+
+            void open() {
+                opened = true;
+                drain();
+            }
+
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("non-positive request: " + n));
+                    return;
+                }
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                done = true;
+                drain();
+            }
+
+            private void drain() {
+                if (wip.getAndIncrement() != 0)
+                    return;
+                do {
+                    if (done) {
+                        closeSource();
+                    } else if (opened) {
+                        try {
+                            if (source == null)
+                                source = body.openBuffers(chunkSize);
+                            while (!done && demand.get() > 0) {
+                                ByteBuffer next = source.next();
+                                if (next == null) {
+                                    done = true;
+                                    closeSource();
+                                    subscriber.onComplete();
+                                    break;
+                                }
+                                demand.decrementAndGet();
+                                subscriber.onNext(next);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                } while (wip.decrementAndGet() != 0);
+            }
+
+            private void fail(Throwable t) {
+                if (done)
+                    return;
+                done = true;
+                closeSource();
+                subscriber.onError(t);
+            }
+
+            private void closeSource() {
+                if (source == null)
+                    return;
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                }
+                source = null;
+            }
+        }
+    }
+
+    /*
+    Example usage:
+            HttpClientTransport transport = HttpClientTransport.Builder.newInstance()
+                    .setMaxConnections(16)
+                    .setVersion(HttpClient.Version.HTTP_2)
+                    .build();
+            IPFS ipfs = new IPFS("/ip4/127.0.0.1/tcp/5001").withTransport(transport);
+     */
+    public static class Builder {
+        private int maxConnections = 8;
+        private int maxStreams = 64;
+        private int acquireTimeoutMillis = DEFAULT_ACQUIRE_TIMEOUT_MILLIS;
+        private int threads = 4;
+        private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private HttpClient.Version version = HttpClient.Version.HTTP_1_1;
+
+        private Builder() {}
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        /**
+         * Maximum number of requests in flight, and so of open connections under HTTP/1.1.
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            if (maxConnections <= 0)
+                throw new IllegalArgumentException("max connections must be positive");
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Maximum number of open-ended requests (subscriptions, streamed responses) open at once, each on its own connection.
+         */
+        public Builder setMaxStreams(int maxStreams) {
+            if (maxStreams <= 0)
+                throw new IllegalArgumentException("max streams must be positive");
+            this.maxStreams = maxStreams;
+            return this;
+        }
+
+        /**
+         * How long a call that has no timeout of its own waits for a free connection before failing.
+         */
+        public Builder setAcquireTimeoutMillis(int acquireTimeoutMillis) {
+            if (acquireTimeoutMillis <= 0)
+                throw new IllegalArgumentException("acquire timeout must be positive");
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Number of threads of the executor the client runs on.
+         */
+        public Builder setThreads(int threads) {
+            if (threads <= 0)
+                throw new IllegalArgumentException("threads must be positive");
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Connect timeout for every connection of the pool, 0 for none.
+         */
+        public Builder setConnectTimeoutMillis(int connectTimeoutMillis) {
+            if (connectTimeoutMillis < 0)
+                throw new IllegalArgumentException("connect timeout must be zero or positive");
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Size of the buffers request bodies are read into when their content is not already in memory.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            if (chunkSize <= 0)
+                throw new IllegalArgumentException("chunk size must be positive");
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public Builder setVersion(HttpClient.Version version) {
+            this.version = Objects.requireNonNull(version);
+            return this;
+        }
+
+        public HttpClientTransport build() {
+            return new HttpClientTransport(this);
+        }
+    }
+}
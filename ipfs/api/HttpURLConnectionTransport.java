@@ -0,0 +1,65 @@
+package ipfs.api;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * A {@link Transport} opening a {@link HttpURLConnection} per call.
+ *
+ * The JDK may still reuse the underlying socket when a response is read to the
+ * end and closed, but nothing is shared explicitly and there is no pool limit.
+ */
+public class HttpURLConnectionTransport implements Transport {
+
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+
+    public HttpURLConnectionTransport() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize chunk size for request bodies of unknown length
+     */
+    public HttpURLConnectionTransport(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public InputStream post(URL target, Map<String, String> headers, Body body,
+                            int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setUseCaches(false);
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(readTimeoutMillis);
+        for (Map.Entry<String, String> header : headers.entrySet())
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        conn.setDoOutput(true);
+        long length = body.length();
+        if (length >= 0)
+            conn.setFixedLengthStreamingMode(length);
+        else
+            conn.setChunkedStreamingMode(chunkSize);
+        try (OutputStream out = conn.getOutputStream()) {
+            body.writeTo(out);
+        }
+
+        int status = conn.getResponseCode();
+        if (status / 100 != 2) {
+            InputStream err = conn.getErrorStream();
+            String message = "";
+            if (err != null) {
+                try (InputStream in = err) {
+                    message = new String(in.readAllBytes());
+                }
+            }
+            throw new StatusException(status, message, conn.getHeaderFields().get("Trailer"));
+        }
+        return conn.getInputStream();
+    }
+}
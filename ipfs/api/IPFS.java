@@ -7,13 +7,14 @@ import io.ipfs.multiaddr.MultiAddress;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.stream.*;
 
-public class IPFS {
+public class IPFS implements Closeable {
 
     public static final Version MIN_VERSION = Version.parse("0.4.11");
     public enum PinType {all, direct, indirect, recursive}
@@ -22,6 +23,7 @@ public class IPFS {
     public List<String> ObjectPatchTypes = Arrays.asList("add-link", "rm-link", "set-data", "append-data");
     private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
     private static final int DEFAULT_READ_TIMEOUT_MILLIS = 60_000;
+    private static final Map<String, String> JSON_HEADERS = Collections.singletonMap("Content-Type", "application/json");
 
     public final String host;
     public final int port;
@@ -29,6 +31,11 @@ public class IPFS {
     private final String apiVersion;
     private final int connectTimeoutMillis;
     private final int readTimeoutMillis;
+    private final Transport transport;
+    // Set only for a transport this object created, see withMaxConnections
+    private final boolean ownsTransport;
+    private final ContentCache cache;
+    private final SingleFlight inFlight = new SingleFlight();
     public final Key key = new Key();
     public final Log log = new Log();
     public final MultibaseAPI multibase = new MultibaseAPI();
@@ -79,12 +86,23 @@ public class IPFS {
     }
 
     public IPFS(String host, int port, String version, boolean enforceMinVersion, int connectTimeoutMillis, int readTimeoutMillis, boolean ssl) {
+        this(host, port, version, enforceMinVersion, connectTimeoutMillis, readTimeoutMillis, ssl, Transport.defaultTransport());
+    }
+
+    public IPFS(String host, int port, String version, boolean enforceMinVersion, int connectTimeoutMillis, int readTimeoutMillis, boolean ssl, Transport transport) {
+        this(host, port, version, enforceMinVersion, connectTimeoutMillis, readTimeoutMillis, ssl, transport, false, null);
+    }
+
+    private IPFS(String host, int port, String version, boolean enforceMinVersion, int connectTimeoutMillis, int readTimeoutMillis, boolean ssl, Transport transport, boolean ownsTransport, ContentCache cache) {
         if (connectTimeoutMillis < 0) throw new IllegalArgumentException("connect timeout must be zero or positive");
         if (readTimeoutMillis < 0) throw new IllegalArgumentException("read timeout must be zero or positive");
         this.host = host;
         this.port = port;
         this.connectTimeoutMillis = connectTimeoutMillis;
         this.readTimeoutMillis = readTimeoutMillis;
+        this.transport = Objects.requireNonNull(transport, "transport");
+        this.ownsTransport = ownsTransport;
+        this.cache = cache;
 
         if (ssl) {
             this.protocol = "https";
@@ -111,7 +129,77 @@ public class IPFS {
      * @return current IPFS object with configured timeout
      */
     public IPFS timeout(int timeout) {
-        return new IPFS(host, port, apiVersion, timeout, timeout, protocol.equals("https"));
+        return new IPFS(host, port, apiVersion, true, timeout, timeout, protocol.equals("https"), transport, false, cache);
+    }
+
+    /**
+     * Use another HTTP transport, e.g. a {@link HttpClientTransport} with a larger pool
+     * or a {@link HttpURLConnectionTransport}
+     * @return a new IPFS object sending its requests through the given transport, which the caller still closes
+     */
+    public IPFS withTransport(Transport transport) {
+        return new IPFS(host, port, apiVersion, false, connectTimeoutMillis, readTimeoutMillis, protocol.equals("https"), transport, false, cache);
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Use a pool of connections of its own instead of the default transport shared by the whole JVM
+     * @param maxConnections the number of calls that may be in flight at once
+     * @return a new IPFS object sending its requests through a new {@link HttpClientTransport},
+     *         which is shut down when that object is closed
+     */
+    public IPFS withMaxConnections(int maxConnections) {
+        Transport own = HttpClientTransport.Builder.newInstance().setMaxConnections(maxConnections).build();
+        return new IPFS(host, port, apiVersion, false, connectTimeoutMillis, readTimeoutMillis, protocol.equals("https"), own, true, cache);
+    }
+
+    /**
+     * Serve {@link #cat(Multihash)}, {@link #get(Multihash)} and {@link Block#get(Multihash)}
+     * through a cache; {@link #catStream(Multihash)} also reads from it, but does not fill it
+     * @param cache the cache, or null for none
+     * @return a new IPFS object sharing this one's transport and the given cache
+     */
+    public IPFS withCache(ContentCache cache) {
+        return new IPFS(host, port, apiVersion, false, connectTimeoutMillis, readTimeoutMillis, protocol.equals("https"), transport, false, cache);
+    }
+
+    public Optional<ContentCache> getCache() {
+        return Optional.ofNullable(cache);
+    }
+
+    /**
+     * Shuts down the transport created by {@link #withMaxConnections(int)}; a transport passed in,
+     * or shared with the object this one was derived from, is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsTransport)
+            transport.close();
+    }
+
+    /**
+     * @return how many reads by CID were served by an identical request already in flight, instead of their own
+     */
+    public long getCoalescedRequests() {
+        return inFlight.joins();
+    }
+
+    /**
+     * @return the API base URL, e.g. http://127.0.0.1:5001/api/v0/
+     */
+    String apiUrl() {
+        return protocol + "://" + host + ":" + port + apiVersion;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
     }
 
     public String shutdown() throws IOException {
@@ -131,17 +219,10 @@ public class IPFS {
     }
 
     public List<MerkleNode> add(List<NamedStreamable> files, boolean wrap, boolean hashOnly) throws IOException {
-        Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion + "add?stream-channels=true&w="+wrap + "&n="+hashOnly, "UTF-8");
-        for (NamedStreamable file: files) {
-            if (file.isDirectory()) {
-                m.addSubtree(Paths.get(""), file);
-            } else
-                m.addFilePart("file", Paths.get(""), file);
+        Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion + "add?stream-channels=true&w="+wrap + "&n="+hashOnly, "UTF-8", transport);
+        try (Stream<MerkleNode> res = addStream(m, files)) {
+            return res.collect(Collectors.toList());
         }
-        String res = m.finish();
-        return JSONParser.parseStream(res).stream()
-                .map(x -> MerkleNode.fromJSON((Map<String, Object>) x))
-                .collect(Collectors.toList());
     }
 
     public List<MerkleNode> add(NamedStreamable file, AddArgs args) throws IOException {
@@ -149,31 +230,69 @@ public class IPFS {
     }
 
     public List<MerkleNode> add(List<NamedStreamable> files, AddArgs args) throws IOException {
-        Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion + "add?stream-channels=true&"+ args.toQueryString(), "UTF-8");
+        try (Stream<MerkleNode> res = addStream(files, args)) {
+            return res.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Like {@link #add(List, AddArgs)}, but yields each added node as soon as the daemon reports it,
+     * without holding the whole response in memory. The stream must be closed.
+     */
+    public Stream<MerkleNode> addStream(List<NamedStreamable> files, AddArgs args) throws IOException {
+        Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion + "add?stream-channels=true&"+ args.toQueryString(), "UTF-8", transport);
+        return addStream(m, files);
+    }
+
+    /**
+     * Like {@link #add(List, AddArgs)}, passing each added node to {@code results} as soon as the daemon reports it.
+     */
+    public void add(List<NamedStreamable> files, AddArgs args, Consumer<MerkleNode> results) throws IOException {
+        try (Stream<MerkleNode> res = addStream(files, args)) {
+            res.forEach(results);
+        }
+    }
+
+    private Stream<MerkleNode> addStream(Multipart m, List<NamedStreamable> files) throws IOException {
         for (NamedStreamable file: files) {
             if (file.isDirectory()) {
                 m.addSubtree(Paths.get(""), file);
             } else
                 m.addFilePart("file", Paths.get(""), file);
         }
-        String res = m.finish();
-        return JSONParser.parseStream(res).stream()
-                .map(x -> MerkleNode.fromJSON((Map<String, Object>) x))
-                .collect(Collectors.toList());
+        InputStream in;
+        try {
+            in = m.finishStream();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return JsonLines.stream(in, MerkleNode::read);
     }
 
     public List<MerkleNode> ls(Multihash hash) throws IOException {
-        Map reply = retrieveMap("ls?arg=" + hash);
-        return ((List<Object>) reply.get("Objects"))
-                .stream()
-                .flatMap(x -> ((List<Object>)((Map) x).get("Links"))
-                        .stream()
-                        .map(MerkleNode::fromJSON))
-                .collect(Collectors.toList());
+        return retrieveAndRead("ls?arg=" + hash, r -> {
+            List<MerkleNode> links = new ArrayList<>();
+            for (List<MerkleNode> objectLinks : readField(r, "Objects", o -> readField(o, "Links", MerkleNode::read)))
+                links.addAll(objectLinks);
+            return links;
+        });
+    }
+
+    /**
+     * Like {@link #ls(Multihash)}, but returns the compact form of the links, with their CIDs interned in {@code cids}
+     * (which may be null).
+     */
+    public List<CompactMerkleNode> lsCompact(Multihash hash, CompactMerkleNode.CidTable cids) throws IOException {
+        return retrieveAndRead("ls?arg=" + hash, r -> {
+            List<CompactMerkleNode> links = new ArrayList<>();
+            for (List<CompactMerkleNode> objectLinks : readField(r, "Objects", o -> readField(o, "Links", l -> CompactMerkleNode.read(l, cids))))
+                links.addAll(objectLinks);
+            return links;
+        });
     }
 
     public byte[] cat(Multihash hash) throws IOException {
-        return retrieve("cat?arg=" + hash);
+        return cached(ContentCache.Kind.CAT, hash, "cat?arg=" + hash);
     }
 
     public byte[] cat(Multihash hash, String subPath) throws IOException {
@@ -181,19 +300,69 @@ public class IPFS {
     }
 
     public byte[] get(Multihash hash) throws IOException {
-        return retrieve("get?arg=" + hash);
+        return cached(ContentCache.Kind.GET, hash, "get?arg=" + hash);
+    }
+
+    /**
+     * Writes the file or directory tree to {@code target} as the archive arrives, like {@code ipfs get -o};
+     * the top-level entry is named after the hash. Memory use does not grow with the size of the tree.
+     */
+    public void get(Multihash hash, Path target) throws IOException {
+        get(hash, target, 1);
+    }
+
+    /**
+     * Like {@link #get(Multihash, Path)}, with up to {@code parallelism} threads writing files while the archive is read.
+     */
+    public void get(Multihash hash, Path target, int parallelism) throws IOException {
+        new TarExtractor(target).extract(getStream(hash), parallelism);
+    }
+
+    /**
+     * Hands each entry of the archive to {@code handler} as it arrives, with a stream over its content.
+     */
+    public void get(Multihash hash, TarReader.EntryHandler handler) throws IOException {
+        TarReader.read(getStream(hash), handler);
+    }
+
+    private InputStream getStream(Multihash hash) throws IOException {
+        byte[] cached = cache == null ? null : cache.peek(ContentCache.Kind.GET, hash);
+        if (cached != null)
+            return new ByteArrayInputStream(cached);
+        return openStream("get?arg=" + hash);
     }
 
     public InputStream catStream(Multihash hash) throws IOException {
-        return retrieveStream("cat?arg=" + hash);
+        byte[] cached = cache == null ? null : cache.peek(ContentCache.Kind.CAT, hash);
+        if (cached != null)
+            return new ByteArrayInputStream(cached);
+        return openStream("cat?arg=" + hash);
     }
 
     public List<Multihash> refs(Multihash hash, boolean recursive) throws IOException {
-        String jsonStream = new String(retrieve("refs?arg=" + hash + "&r=" + recursive));
-        return JSONParser.parseStream(jsonStream).stream()
-                .map(m -> (String) (((Map) m).get("Ref")))
-                .map(Cid::decode)
-                .collect(Collectors.toList());
+        try (Stream<Multihash> res = refsStream(hash, recursive)) {
+            return res.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Like {@link #refs(Multihash, boolean)}, but yields each ref as it arrives. The stream must be closed.
+     */
+    public Stream<Multihash> refsStream(Multihash hash, boolean recursive) throws IOException {
+        return JsonLines.stream(openStream("refs?arg=" + hash + "&r=" + recursive), IPFS::decodeRef);
+    }
+
+    private static Multihash decodeRef(JSONReader r) throws IOException {
+        String ref = null;
+        r.beginObject();
+        String field;
+        while ((field = r.nextName()) != null) {
+            if (field.equals("Ref"))
+                ref = (String) r.readValue();
+            else
+                r.skipValue();
+        }
+        return Cid.decode(ref);
     }
 
     public Map resolve(String scheme, Multihash hash, boolean recursive) throws IOException {
@@ -218,11 +387,16 @@ public class IPFS {
     // level 2 commands
     public class Refs {
         public List<Multihash> local() throws IOException {
-            String jsonStream = new String(retrieve("refs/local"));
-            return JSONParser.parseStream(jsonStream).stream()
-                    .map(m -> (String) (((Map) m).get("Ref")))
-                    .map(Cid::decode)
-                    .collect(Collectors.toList());
+            try (Stream<Multihash> res = localStream()) {
+                return res.collect(Collectors.toList());
+            }
+        }
+
+        /**
+         * Like {@link #local()}, but yields each ref as it arrives. The stream must be closed.
+         */
+        public Stream<Multihash> localStream() throws IOException {
+            return JsonLines.stream(openStream("refs/local"), IPFS::decodeRef);
         }
     }
 
@@ -303,14 +477,11 @@ public class IPFS {
      */
     public class Key {
         public KeyInfo gen(String name, Optional<String> type, Optional<String> size) throws IOException {
-            return KeyInfo.fromJson(retrieveAndParse("key/gen?arg=" + name + type.map(t -> "&type=" + t).orElse("") + size.map(s -> "&size=" + s).orElse("")));
+            return retrieveAndRead("key/gen?arg=" + name + type.map(t -> "&type=" + t).orElse("") + size.map(s -> "&size=" + s).orElse(""), KeyInfo::read);
         }
 
         public List<KeyInfo> list() throws IOException {
-            return ((List<Object>)((Map)retrieveAndParse("key/list")).get("Keys"))
-                    .stream()
-                    .map(KeyInfo::fromJson)
-                    .collect(Collectors.toList());
+            return retrieveAndRead("key/list", r -> readField(r, "Keys", KeyInfo::read));
         }
 
         public Object rename(String name, String newName) throws IOException {
@@ -318,10 +489,7 @@ public class IPFS {
         }
 
         public List<KeyInfo> rm(String name) throws IOException {
-            return ((List<Object>)((Map)retrieveAndParse("key/rm?arg=" + name)).get("Keys"))
-                    .stream()
-                    .map(KeyInfo::fromJson)
-                    .collect(Collectors.toList());
+            return retrieveAndRead("key/rm?arg=" + name, r -> readField(r, "Keys", KeyInfo::read));
         }
     }
 
@@ -337,7 +505,7 @@ public class IPFS {
     public class MultibaseAPI {
         public String decode(NamedStreamable encoded_file) {
             Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion +
-                    "multibase/decode", "UTF-8");
+                    "multibase/decode", "UTF-8", transport);
             try {
                 if (encoded_file.isDirectory()) {
                     throw new IllegalArgumentException("encoded_file must be a file");
@@ -352,7 +520,7 @@ public class IPFS {
         public String encode(Optional<String> encoding, NamedStreamable file) {
             String b = encoding.map(f -> "?b=" + f).orElse("?b=base64url");
             Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion +
-                    "multibase/encode" + b, "UTF-8");
+                    "multibase/encode" + b, "UTF-8", transport);
             try {
                 if (file.isDirectory()) {
                     throw new IllegalArgumentException("Input must be a file");
@@ -370,7 +538,7 @@ public class IPFS {
         public String transcode(Optional<String> encoding, NamedStreamable file) {
             String b = encoding.map(f -> "?b=" + f).orElse("?b=base64url");
             Multipart m = new Multipart(protocol + "://" + host + ":" + port + apiVersion +
-                    "multibase/transcode" + b, "UTF-8");
+                    "multibase/transcode" + b, "UTF-8", transport);
             try {
                 if (file.isDirectory()) {
                     throw new IllegalArgumentException("Input must be a file");
@@ -398,7 +566,7 @@ public class IPFS {
             return retrieveString("repo/migrate?allow-downgrade=" + allowDowngrade);
         }*/
         public RepoStat stat(boolean sizeOnly) throws IOException {
-            return RepoStat.fromJson(retrieveAndParse("repo/stat?size-only=" + sizeOnly));
+            return retrieveAndRead("repo/stat?size-only=" + sizeOnly, RepoStat::read);
         }
         public Map verify() throws IOException {
             return retrieveMap("repo/verify");
@@ -434,23 +602,45 @@ public class IPFS {
          * @param data url encoded data to be published
          */
         public void pub(String topic, String data) {
-            String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, topic.getBytes());
-            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"pubsub/pub?arg=" + encodedTopic, "UTF-8");
             try {
-                m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(data.getBytes()));
-                String res = m.finish();
+                pub(Multibase.encode(Multibase.Base.Base64Url, topic.getBytes()), data.getBytes());
             } catch (IOException e) {
                 throw new RuntimeException(e.getMessage(), e);
             }
         }
 
+        /**
+         * @return a publisher for the topic that sends messages in the background, with the default settings
+         */
+        public PubsubPublisher publisher(String topic) {
+            return publisher(topic, PubsubPublisher.Config.defaults());
+        }
+
+        /**
+         * @return a publisher for the topic that sends messages in the background; it must be closed
+         */
+        public PubsubPublisher publisher(String topic, PubsubPublisher.Config config) {
+            String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, topic.getBytes());
+            return new PubsubPublisher(data -> pub(encodedTopic, data), topic, config);
+        }
+
+        private void pub(String encodedTopic, byte[] data) throws IOException {
+            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"pubsub/pub?arg=" + encodedTopic, "UTF-8", transport);
+            m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(data));
+            m.finish();
+        }
+
         public Stream<Map<String, Object>> sub(String topic) throws Exception {
             return sub(topic, ForkJoinPool.commonPool());
         }
 
+        /**
+         * @return the messages, as they arrive; the stream blocks while waiting for them and must be closed
+         */
         public Stream<Map<String, Object>> sub(String topic, ForkJoinPool threadSupplier) throws Exception {
-            String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, topic.getBytes());
-            return retrieveAndParseStream("pubsub/sub?arg=" + encodedTopic, threadSupplier).map(obj -> (Map)obj);
+            return subscribe(topic, PubsubSubscription.DEFAULT_CAPACITY, PubsubSubscription.Overflow.BLOCK, threadSupplier)
+                    .stream()
+                    .map(PubsubMessage::toMap);
         }
 
         /**
@@ -461,7 +651,34 @@ public class IPFS {
          */
         public void sub(String topic, Consumer<Map<String, Object>> results, Consumer<IOException> error) throws IOException {
             String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, topic.getBytes());
-            retrieveAndParseStream("pubsub/sub?arg="+encodedTopic, res -> results.accept((Map)res), error);
+            try (JsonLines<Map<String, Object>> lines = new JsonLines<>(openStream("pubsub/sub?arg=" + encodedTopic), r -> (Map<String, Object>) r.readValue())) {
+                while (lines.hasNext())
+                    results.accept(lines.next());
+            } catch (UncheckedIOException e) {
+                error.accept(e.getCause());
+            } catch (IOException e) {
+                error.accept(e);
+            }
+        }
+
+        /**
+         * Subscribes with a buffer of {@link PubsubSubscription#DEFAULT_CAPACITY} messages that
+         * stops reading when full, delivering on the common pool
+         */
+        public PubsubSubscription subscribe(String topic) {
+            return subscribe(topic, PubsubSubscription.DEFAULT_CAPACITY, PubsubSubscription.Overflow.BLOCK, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * @param capacity the most messages buffered while the subscriber has no demand
+         * @param overflow what to do with messages that arrive when the buffer is full
+         * @param executor where the subscriber is called
+         * @return a publisher of the topic's messages; the request to the daemon is sent once it has a subscriber,
+         * and holds a connection of the transport's stream limit until the subscription ends
+         */
+        public PubsubSubscription subscribe(String topic, int capacity, PubsubSubscription.Overflow overflow, Executor executor) {
+            String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, topic.getBytes());
+            return new PubsubSubscription(() -> openStream("pubsub/sub?arg=" + encodedTopic), topic, capacity, overflow, executor);
         }
     }
 
@@ -494,8 +711,11 @@ public class IPFS {
     /* 'ipfs block' is a plumbing command used to manipulate raw ipfs blocks.
      */
     public class Block {
+        public static final int PUT_BATCH_BLOCKS = 1024;
+        public static final long PUT_BATCH_BYTES = 32L * 1024 * 1024;
+
         public byte[] get(Multihash hash) throws IOException {
-            return retrieve("block/get?stream-channels=true&arg=" + hash);
+            return cached(ContentCache.Kind.BLOCK, hash, "block/get?stream-channels=true&arg=" + hash);
         }
 
         public byte[] rm(Multihash hash) throws IOException {
@@ -506,18 +726,57 @@ public class IPFS {
             return put(data, Optional.empty());
         }
 
+        /**
+         * Puts the blocks with one multipart request per batch of up to {@link #PUT_BATCH_BLOCKS} blocks
+         * or {@link #PUT_BATCH_BYTES} bytes, reading the daemon's NDJSON reply line by line.
+         * Daemons that only store the first file of a request, recognised by a single reply line for a
+         * batch of several blocks, get the rest of the batch one by one; any other short reply fails.
+         * @return the stored blocks, in input order
+         */
         public List<MerkleNode> put(List<byte[]> data, Optional<String> format) throws IOException {
-            // N.B. Once IPFS implements a bulk put this can become a single multipart call with multiple 'files'
-            List<MerkleNode> res = new ArrayList<>();
-            for (byte[] value : data) {
-                res.add(put(value, format));
+            List<MerkleNode> res = new ArrayList<>(data.size());
+            int start = 0;
+            while (start < data.size()) {
+                int end = start;
+                long bytes = 0;
+                while (end < data.size() && end - start < PUT_BATCH_BLOCKS
+                        && (end == start || bytes + data.get(end).length <= PUT_BATCH_BYTES))
+                    bytes += data.get(end++).length;
+                putBatch(data.subList(start, end), format, res);
+                start = end;
             }
             return res;
         }
 
+        private void putBatch(List<byte[]> batch, Optional<String> format, List<MerkleNode> res) throws IOException {
+            String fmt = format.map(f -> "&format=" + f).orElse("");
+            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"block/put?stream-channels=true" + fmt, "UTF-8", transport);
+            for (byte[] value : batch)
+                m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(value));
+            int stored = 0;
+            try (Stream<MerkleNode> reply = JsonLines.stream(m.finishStream(), MerkleNode::read)) {
+                Iterator<MerkleNode> nodes = reply.iterator();
+                while (nodes.hasNext()) {
+                    if (stored == batch.size())
+                        throw new IOException("block/put returned more results than the " + batch.size() + " blocks sent");
+                    res.add(nodes.next());
+                    stored++;
+                }
+                if (stored < batch.size() && !(stored == 1 && batch.size() > 1))
+                    throw new IOException("block/put returned " + stored + " results for the " + batch.size() + " blocks sent");
+            } catch (UncheckedIOException e) {
+                throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            // Only the first block was stored by a daemon without multi-file block/put
+            for (int i = stored; i < batch.size(); i++)
+                res.add(put(batch.get(i), format));
+        }
+
         public MerkleNode put(byte[] data, Optional<String> format) throws IOException {
             String fmt = format.map(f -> "&format=" + f).orElse("");
-            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"block/put?stream-channels=true" + fmt, "UTF-8");
+            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"block/put?stream-channels=true" + fmt, "UTF-8", transport);
             try {
                 m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(data));
                 String res = m.finish();
@@ -537,7 +796,7 @@ public class IPFS {
     public class IPFSObject {
         @Deprecated
         public List<MerkleNode> put(List<byte[]> data) throws IOException {
-            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"object/put?stream-channels=true", "UTF-8");
+            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"object/put?stream-channels=true", "UTF-8", transport);
             for (byte[] f : data)
                 m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(f));
             String res = m.finish();
@@ -547,7 +806,7 @@ public class IPFS {
         public List<MerkleNode> put(String encoding, List<byte[]> data) throws IOException {
             if (!"json".equals(encoding) && !"protobuf".equals(encoding))
                 throw new IllegalArgumentException("Encoding must be json or protobuf");
-            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"object/put?stream-channels=true&encoding="+encoding, "UTF-8");
+            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"object/put?stream-channels=true&encoding="+encoding, "UTF-8", transport);
             for (byte[] f : data)
                 m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(f));
             String res = m.finish();
@@ -561,12 +820,11 @@ public class IPFS {
         }
         @Deprecated
         public MerkleNode links(Multihash hash) throws IOException {
-            Map json = retrieveMap("object/links?stream-channels=true&arg=" + hash);
-            return MerkleNode.fromJSON(json);
+            return retrieveAndRead("object/links?stream-channels=true&arg=" + hash, MerkleNode::read);
         }
         @Deprecated
         public Map<String, Object> stat(Multihash hash) throws IOException {
-            return retrieveMap("object/stat?stream-channels=true&arg=" + hash);
+            return (Map<String, Object>) JSONReader.parse(shared("object/stat?stream-channels=true&arg=" + hash));
         }
         @Deprecated
         public byte[] data(Multihash hash) throws IOException {
@@ -576,8 +834,7 @@ public class IPFS {
         public MerkleNode _new(Optional<String> template) throws IOException {
             if (template.isPresent() && !ObjectTemplates.contains(template.get()))
                 throw new IllegalStateException("Unrecognised template: "+template.get());
-            Map json = retrieveMap("object/new?stream-channels=true"+(template.isPresent() ? "&arg=" + template.get() : ""));
-            return MerkleNode.fromJSON(json);
+            return retrieveAndRead("object/new?stream-channels=true"+(template.isPresent() ? "&arg=" + template.get() : ""), MerkleNode::read);
         }
         @Deprecated
         public MerkleNode patch(Multihash base, String command, Optional<byte[]> data, Optional<String> name, Optional<Multihash> target) throws IOException {
@@ -601,7 +858,7 @@ public class IPFS {
                 case "append-data":
                     if (!data.isPresent())
                         throw new IllegalStateException("set-data requires data!");
-                    Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"object/patch/"+command+"?arg="+base.toBase58()+"&stream-channels=true", "UTF-8");
+                    Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"object/patch/"+command+"?arg="+base.toBase58()+"&stream-channels=true", "UTF-8", transport);
                     m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(data.get()));
                     String res = m.finish();
                     return MerkleNode.fromJSON(JSONParser.parse(res));
@@ -750,7 +1007,7 @@ public class IPFS {
             String arg = URLEncoder.encode(path, "UTF-8");
             String rpcParams = "files/write?arg=" + arg + "&create=" + create + "&parents=" + parents;
             URL target = new URL(protocol,host,port,apiVersion + rpcParams);
-            Multipart m = new Multipart(target.toString(),"UTF-8");
+            Multipart m = new Multipart(target.toString(),"UTF-8", transport);
             if (uploadFile.isDirectory()) {
                 throw new IllegalArgumentException("Input must be a file");
             } else {
@@ -763,7 +1020,7 @@ public class IPFS {
             String arg = URLEncoder.encode(path, "UTF-8");
             String rpcParams = "files/write?arg=" + arg + "&" + args.toQueryString();
             URL target = new URL(protocol,host,port,apiVersion + rpcParams);
-            Multipart m = new Multipart(target.toString(),"UTF-8");
+            Multipart m = new Multipart(target.toString(),"UTF-8", transport);
             if (uploadFile.isDirectory()) {
                 throw new IllegalArgumentException("Input must be a file");
             } else {
@@ -855,18 +1112,10 @@ public class IPFS {
      */
     public class Swarm {
         public List<Peer> peers() throws IOException {
-            Map m = retrieveMap("swarm/peers?stream-channels=true");
-            if (m.get("Peers") == null) {
-                return Collections.emptyList();
-            }
-            return ((List<Object>)m.get("Peers")).stream()
-                    .flatMap(json -> {
-                        try {
-                            return Stream.of(Peer.fromJSON(json));
-                        } catch (Exception e) {
-                            return Stream.empty();
-                        }
-                    }).collect(Collectors.toList());
+            // Peers that cannot be decoded are left out
+            List<Peer> peers = retrieveAndRead("swarm/peers?stream-channels=true", r -> readField(r, "Peers", Peer::readIfValid));
+            peers.removeIf(Objects::isNull);
+            return peers;
         }
 
         public Map<Multihash, List<MultiAddress>> addrs() throws IOException {
@@ -917,7 +1166,7 @@ public class IPFS {
 
     public class Dag {
         public byte[] get(Cid cid) throws IOException {
-            return retrieve("dag/get?stream-channels=true&arg=" + cid);
+            return shared("dag/get?stream-channels=true&arg=" + cid);
         }
 
         public MerkleNode put(byte[] object) throws IOException {
@@ -934,7 +1183,7 @@ public class IPFS {
 
         public MerkleNode put(String inputFormat, byte[] object, String outputFormat) throws IOException {
             String prefix = protocol + "://" + host + ":" + port + apiVersion;
-            Multipart m = new Multipart(prefix + "dag/put/?stream-channels=true&input-codec=" + inputFormat + "&store-codec=" + outputFormat, "UTF-8");
+            Multipart m = new Multipart(prefix + "dag/put/?stream-channels=true&input-codec=" + inputFormat + "&store-codec=" + outputFormat, "UTF-8", transport);
             m.addFilePart("file", Paths.get(""), new NamedStreamable.ByteArrayWrapper(object));
             String res = m.finish();
             return MerkleNode.fromJSON(JSONParser.parse(res));
@@ -997,7 +1246,7 @@ public class IPFS {
             return retrieveMap("stats/provide");
         }
         public RepoStat repo(boolean sizeOnly) throws IOException {
-            return RepoStat.fromJson(retrieveAndParse("stats/repo?size-only=" + sizeOnly));
+            return retrieveAndRead("stats/repo?size-only=" + sizeOnly, RepoStat::read);
         }
     }
 
@@ -1031,7 +1280,7 @@ public class IPFS {
         }
 
         public void replace(NamedStreamable file) throws IOException {
-            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"config/replace?stream-channels=true", "UTF-8");
+            Multipart m = new Multipart(protocol +"://" + host + ":" + port + apiVersion+"config/replace?stream-channels=true", "UTF-8", transport);
             m.addFilePart("file", Paths.get(""), file);
             String res = m.finish();
         }
@@ -1064,56 +1313,55 @@ public class IPFS {
         return (Map)retrieveAndParse(path);
     }
 
-    private Object retrieveAndParse(String path) throws IOException {
-        byte[] res = retrieve(path);
-        return JSONParser.parse(new String(res));
-    }
-
-    private Stream<Object> retrieveAndParseStream(String path, ForkJoinPool executor) throws IOException {
-        BlockingQueue<CompletableFuture<byte[]>> results = new LinkedBlockingQueue<>();
-        InputStream in = retrieveStream(path);
-        executor.submit(() -> getObjectStream(in,
-                res -> {
-                    results.add(CompletableFuture.completedFuture(res));
-                },
-                err -> {
-                    CompletableFuture<byte[]> fut = new CompletableFuture<>();
-                    fut.completeExceptionally(err);
-                    results.add(fut);
-                })
-        );
-        return Stream.generate(() -> {
-            try {
-                return JSONParser.parse(new String(results.take().get()));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        });
+    // Decodes the response as it is read, without building the intermediate Maps
+    private <T> T retrieveAndRead(String path, JSONReader.Decoder<T> decoder) throws IOException {
+        try (JSONReader r = new JSONReader(retrieveStream(path))) {
+            return decoder.read(r);
+        }
     }
 
-    /**
-     * A synchronous stream retriever that consumes the calling thread
-     * @param path
-     * @param results
-     * @throws IOException
-     */
-    private void retrieveAndParseStream(String path, Consumer<Object> results, Consumer<IOException> err) throws IOException {
-        getObjectStream(retrieveStream(path), d -> results.accept(JSONParser.parse(new String(d))), err);
+    // Reads the array in one field of an object and skips the other fields; a missing field reads as an empty list
+    private static <T> List<T> readField(JSONReader r, String name, JSONReader.Decoder<T> element) throws IOException {
+        List<T> res = new ArrayList<>();
+        r.beginObject();
+        String field;
+        while ((field = r.nextName()) != null) {
+            if (field.equals(name))
+                res.addAll(r.readArray(element));
+            else
+                r.skipValue();
+        }
+        return res;
+    }
+
+    private Object retrieveAndParse(String path) throws IOException {
+        byte[] res = retrieve(path);
+        return JSONReader.parse(res);
     }
 
     private String retrieveString(String path) throws IOException {
         URL target = new URL(protocol, host, port, apiVersion + path);
-        return new String(IPFS.get(target, connectTimeoutMillis, readTimeoutMillis));
+        return new String(get(target));
+    }
+
+    // Content fetched by hash never changes, so it can be served from the cache when there is one
+    private byte[] cached(ContentCache.Kind kind, Multihash hash, String path) throws IOException {
+        if (cache == null)
+            return shared(path);
+        return cache.get(kind, hash, () -> shared(path));
+    }
+
+    // For reads of immutable content: concurrent calls with the same path share one request
+    private byte[] shared(String path) throws IOException {
+        return inFlight.run(path, () -> retrieve(path));
     }
 
     private byte[] retrieve(String path) throws IOException {
         URL target = new URL(protocol, host, port, apiVersion + path);
-        return IPFS.get(target, connectTimeoutMillis, readTimeoutMillis);
+        return get(target);
     }
 
-    private static byte[] get(URL target, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
-        HttpURLConnection conn = configureConnection(target, "POST", connectTimeoutMillis, readTimeoutMillis);
-        conn.setDoOutput(true);
+    private byte[] get(URL target) throws IOException {
         /* See IPFS commit for why this is a POST and not a GET https://github.com/ipfs/go-ipfs/pull/7097
            This commit upgrades go-ipfs-cmds and configures the commands HTTP API Handler
            to only allow POST/OPTIONS, disallowing GET and others in the handling of
@@ -1131,15 +1379,7 @@ public class IPFS {
            HTTP endpoint (usually :5001). Applications integrating on top of the
            gateway-read-only API should still work (including cross-domain access).
         */
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-
-        try {
-            OutputStream out = conn.getOutputStream();
-            out.write(new byte[0]);
-            out.flush();
-            out.close();
-            InputStream in = conn.getInputStream();
+        try (InputStream in = send(target, Transport.Body.EMPTY, JSON_HEADERS)) {
             ByteArrayOutputStream resp = new ByteArrayOutputStream();
 
             byte[] buf = new byte[4096];
@@ -1147,10 +1387,27 @@ public class IPFS {
             while ((r = in.read(buf)) >= 0)
                 resp.write(buf, 0, r);
             return resp.toByteArray();
+        }
+    }
+
+    private InputStream send(URL target, Transport.Body body, Map<String, String> headers) throws IOException {
+        return send(target, body, headers, false);
+    }
+
+    // Sends the request through the transport, with daemon errors reported as before
+    private InputStream send(URL target, Transport.Body body, Map<String, String> headers, boolean openEnded) throws IOException {
+        try {
+            return openEnded ?
+                    transport.postStream(target, headers, body, connectTimeoutMillis, readTimeoutMillis) :
+                    transport.post(target, headers, body, connectTimeoutMillis, readTimeoutMillis);
+        } catch (Transport.StatusException e) {
+            throw new RuntimeException("IOException contacting IPFS daemon.\n"+e.body+"\nTrailer: " + e.trailer, e);
         } catch (ConnectException e) {
             throw new RuntimeException("Couldn't connect to IPFS daemon at "+target+"\n Is IPFS running?");
+        } catch (InterruptedIOException e) {
+            throw e;
         } catch (IOException e) {
-            throw extractError(e, conn);
+            throw new RuntimeException("IOException contacting IPFS daemon.\n"+e.getMessage(), e);
         }
     }
 
@@ -1160,79 +1417,31 @@ public class IPFS {
         return new RuntimeException("IOException contacting IPFS daemon.\n"+err+"\nTrailer: " + conn.getHeaderFields().get("Trailer"), e);
     }
 
-    private void getObjectStream(InputStream in, Consumer<byte[]> processor, Consumer<IOException> error) {
-        byte LINE_FEED = (byte)10;
-
-        try {
-            ByteArrayOutputStream resp = new ByteArrayOutputStream();
-
-            byte[] buf = new byte[4096];
-            int r;
-            while ((r = in.read(buf)) >= 0) {
-                resp.write(buf, 0, r);
-                if (buf[r - 1] == LINE_FEED) {
-                    processor.accept(resp.toByteArray());
-                    resp.reset();
-                }
-            }
-        } catch (IOException e) {
-            error.accept(e);
-        }
-    }
-
     private List<Object> getAndParseStream(String path) throws IOException {
-        InputStream in = retrieveStream(path);
-        byte LINE_FEED = (byte)10;
-
-        ByteArrayOutputStream resp = new ByteArrayOutputStream();
-
-        byte[] buf = new byte[4096];
-        int r;
-        List<Object> res = new ArrayList<>();
-        while ((r = in.read(buf)) >= 0) {
-            resp.write(buf, 0, r);
-            if (buf[r - 1] == LINE_FEED) {
-                res.add(JSONParser.parse(new String(resp.toByteArray())));
-                resp.reset();
-            }
+        try (Stream<Object> lines = JsonLines.stream(retrieveStream(path), JSONReader::readValue)) {
+            return lines.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return res;
     }
 
     private InputStream retrieveStream(String path) throws IOException {
         URL target = new URL(protocol, host, port, apiVersion + path);
-        return IPFS.getStream(target, connectTimeoutMillis, readTimeoutMillis);
+        return send(target, Transport.Body.EMPTY, JSON_HEADERS);
     }
 
-    private static InputStream getStream(URL target, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
-        HttpURLConnection conn = configureConnection(target, "POST", connectTimeoutMillis, readTimeoutMillis);
-        try {
-            return conn.getInputStream();
-        } catch (IOException e) {
-            throw extractError(e, conn);
-        }
+    // For responses handed to the caller, who may hold them open; see Transport#postStream
+    private InputStream openStream(String path) throws IOException {
+        URL target = new URL(protocol, host, port, apiVersion + path);
+        return send(target, Transport.Body.EMPTY, JSON_HEADERS, true);
     }
 
     private Map postMap(String path, byte[] body, Map<String, String> headers) throws IOException {
         URL target = new URL(protocol, host, port, apiVersion + path);
-        return (Map) JSONParser.parse(new String(post(target, body, headers, connectTimeoutMillis, readTimeoutMillis)));
-    }
-
-    private static byte[] post(URL target, byte[] body, Map<String, String> headers, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
-        HttpURLConnection conn = configureConnection(target, "POST", connectTimeoutMillis, readTimeoutMillis);
-        for (String key: headers.keySet())
-            conn.setRequestProperty(key, headers.get(key));
-        conn.setDoOutput(true);
-        OutputStream out = conn.getOutputStream();
-        out.write(body);
-        out.flush();
-        out.close();
-
-        try {
-            InputStream in = conn.getInputStream();
-            return readFully(in);
-        } catch (IOException e) {
-            throw extractError(e, conn);
+        Map<String, String> all = new LinkedHashMap<>(JSON_HEADERS);
+        all.putAll(headers);
+        try (InputStream in = send(target, Transport.Body.of(body), all)) {
+            return (Map) JSONReader.parse(in);
         }
     }
 
@@ -1253,13 +1462,4 @@ public class IPFS {
     private static boolean detectSSL(MultiAddress multiaddress) {
         return multiaddress.toString().contains("/https");
     }
-    
-    private static HttpURLConnection configureConnection(URL target, String method, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
-        conn.setRequestMethod(method);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setConnectTimeout(connectTimeoutMillis);
-        conn.setReadTimeout(readTimeoutMillis);
-        return conn;
-    }
 }
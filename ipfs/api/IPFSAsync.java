@@ -0,0 +1,246 @@
+package ipfs.api;
+
+import io.ipfs.cid.*;
+import io.ipfs.multihash.Multihash;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Asynchronous counterpart of the core {@link IPFS} commands.
+ *
+ * Every call returns immediately with a {@link CompletableFuture}. Requests are
+ * sent with {@link HttpClient#sendAsync}, so no thread is blocked while a request
+ * is in flight, and at most {@code maxInFlight} requests are sent to the daemon
+ * at once; the rest wait in a queue without holding a thread. Futures complete
+ * exceptionally with the {@link IOException} of a failed call, e.g. a
+ * {@link Transport.StatusException} carrying the daemon's error.
+ *
+ * Requests go through the client of the IPFS object's {@link HttpClientTransport},
+ * or of the shared one when it uses another transport. The transport's own
+ * connection limit only applies to blocking calls.
+ */
+public class IPFSAsync {
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final Map<String, String> JSON_HEADERS = Collections.singletonMap("Content-Type", "application/json");
+
+    private final IPFS ipfs;
+    private final HttpClientTransport transport;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    // Work-in-progress counter, so that drain() called from completion callbacks loops instead of recursing
+    private final AtomicInteger wip = new AtomicInteger();
+
+    public IPFSAsync(IPFS ipfs) {
+        this(ipfs, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public IPFSAsync(IPFS ipfs, int maxInFlight) {
+        if (maxInFlight <= 0)
+            throw new IllegalArgumentException("max in flight must be positive");
+        this.ipfs = ipfs;
+        this.transport = ipfs.getTransport() instanceof HttpClientTransport ?
+                (HttpClientTransport) ipfs.getTransport() :
+                HttpClientTransport.shared();
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return number of requests currently sent and not yet answered
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return number of requests waiting for one of the {@code maxInFlight} slots
+     */
+    public int queued() {
+        return waiting.size();
+    }
+
+    public CompletableFuture<List<MerkleNode>> add(NamedStreamable file) {
+        return add(file, false);
+    }
+
+    public CompletableFuture<List<MerkleNode>> add(NamedStreamable file, boolean wrap) {
+        return add(Collections.singletonList(file), wrap, false);
+    }
+
+    public CompletableFuture<List<MerkleNode>> add(List<NamedStreamable> files, boolean wrap, boolean hashOnly) {
+        return addFiles("add?stream-channels=true&w=" + wrap + "&n=" + hashOnly, files);
+    }
+
+    public CompletableFuture<List<MerkleNode>> add(NamedStreamable file, AddArgs args) {
+        return add(Collections.singletonList(file), args);
+    }
+
+    public CompletableFuture<List<MerkleNode>> add(List<NamedStreamable> files, AddArgs args) {
+        return addFiles("add?stream-channels=true&" + args.toQueryString(), files);
+    }
+
+    public CompletableFuture<byte[]> cat(Multihash hash) {
+        return retrieve("cat?arg=" + hash);
+    }
+
+    public CompletableFuture<byte[]> get(Multihash hash) {
+        return retrieve("get?arg=" + hash);
+    }
+
+    public CompletableFuture<byte[]> blockGet(Multihash hash) {
+        return retrieve("block/get?stream-channels=true&arg=" + hash);
+    }
+
+    public CompletableFuture<MerkleNode> blockPut(byte[] data, Optional<String> format) {
+        String fmt = format.map(f -> "&format=" + f).orElse("");
+        return upload("block/put?stream-channels=true" + fmt, Collections.singletonList(new NamedStreamable.ByteArrayWrapper(data)))
+                .thenApply(res -> JSONReader.parseStream(res).stream()
+                        .map(MerkleNode::fromJSON)
+                        .findFirst().get());
+    }
+
+    public CompletableFuture<Map<String, Object>> blockStat(Multihash hash) {
+        return retrieveMap("block/stat?stream-channels=true&arg=" + hash);
+    }
+
+    public CompletableFuture<byte[]> dagGet(Cid cid) {
+        return retrieve("dag/get?stream-channels=true&arg=" + cid);
+    }
+
+    public CompletableFuture<MerkleNode> dagPut(String inputFormat, byte[] object, String outputFormat) {
+        return upload("dag/put/?stream-channels=true&input-codec=" + inputFormat + "&store-codec=" + outputFormat,
+                Collections.singletonList(new NamedStreamable.ByteArrayWrapper(object)))
+                .thenApply(res -> MerkleNode.fromJSON(JSONReader.parse(res)));
+    }
+
+    public CompletableFuture<List<Multihash>> pinAdd(Multihash hash) {
+        return retrieveMap("pin/add?stream-channels=true&arg=" + hash).thenApply(IPFSAsync::pins);
+    }
+
+    public CompletableFuture<List<Multihash>> pinRm(Multihash hash, boolean recursive) {
+        return retrieveMap("pin/rm?stream-channels=true&r=" + recursive + "&arg=" + hash).thenApply(IPFSAsync::pins);
+    }
+
+    public CompletableFuture<Map<String, Object>> objectStat(Multihash hash) {
+        return retrieveMap("object/stat?arg=" + hash);
+    }
+
+    public CompletableFuture<String> version() {
+        return retrieveMap("version").thenApply(m -> (String) m.get("Version"));
+    }
+
+    private static List<Multihash> pins(Map<String, Object> json) {
+        return ((List<?>) json.get("Pins")).stream()
+                .map(x -> (Multihash) Cid.decode((String) x))
+                .collect(Collectors.toList());
+    }
+
+    // ---------------------------
+    // Requests
+    // ---------------------------
+
+    private CompletableFuture<List<MerkleNode>> addFiles(String path, List<NamedStreamable> files) {
+        return upload(path, files).thenApply(res -> JSONReader.parseStream(res).stream()
+                .map(MerkleNode::fromJSON)
+                .collect(Collectors.toList()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Map<String, Object>> retrieveMap(String path) {
+        return retrieve(path).thenApply(res -> (Map<String, Object>) JSONReader.parse(res));
+    }
+
+    private CompletableFuture<byte[]> retrieve(String path) {
+        return send(() -> transport.request(new URL(ipfs.apiUrl() + path), JSON_HEADERS, Transport.Body.EMPTY,
+                ipfs.getReadTimeoutMillis()));
+    }
+
+    private CompletableFuture<byte[]> upload(String path, List<NamedStreamable> files) {
+        return send(() -> {
+            Multipart m = new Multipart(ipfs.apiUrl() + path, "UTF-8", transport);
+            for (NamedStreamable file : files) {
+                if (file.isDirectory())
+                    m.addSubtree(Paths.get(""), file);
+                else
+                    m.addFilePart("file", Paths.get(""), file);
+            }
+            Transport.Body body = m.finishBody();
+            // Uploads have no response timeout, as with the blocking client
+            return transport.request(m.getUrl(), m.headers(), body, 0);
+        });
+    }
+
+    private interface RequestFactory {
+        HttpRequest build() throws IOException;
+    }
+
+    // Queues the request until a slot is free, then sends it without blocking
+    private CompletableFuture<byte[]> send(RequestFactory factory) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        waiting.add(() -> {
+            HttpRequest request;
+            try {
+                request = factory.build();
+            } catch (IOException | RuntimeException e) {
+                release();
+                result.completeExceptionally(e);
+                return;
+            }
+            CompletableFuture<HttpResponse<byte[]>> sent;
+            try {
+                sent = transport.getClient().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (RuntimeException e) {
+                release();
+                result.completeExceptionally(e);
+                return;
+            }
+            sent.whenComplete((response, error) -> {
+                release();
+                if (error != null)
+                    result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ?
+                            error.getCause() : error);
+                else if (response.statusCode() / 100 != 2)
+                    result.completeExceptionally(new Transport.StatusException(response.statusCode(),
+                            new String(response.body(), StandardCharsets.UTF_8), response.headers().allValues("Trailer")));
+                else
+                    result.complete(response.body());
+            });
+        });
+        drain();
+        return result;
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    // Starts queued requests while slots are free; safe to call from any thread. Only one thread
+    // drains at a time, the others just make it loop again, so slots are only ever taken here
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+            return;
+        do {
+            while (inFlight.get() < maxInFlight) {
+                Runnable next = waiting.poll();
+                if (next == null)
+                    break;
+                inFlight.incrementAndGet();
+                next.run();
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+}
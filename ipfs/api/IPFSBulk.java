@@ -0,0 +1,227 @@
+package ipfs.api;
+
+import io.ipfs.multihash.Multihash;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs many blocking {@link IPFS} calls concurrently and returns their results in input order.
+ *
+ * Each call runs on its own virtual thread when the JVM has them (Java 21+), and
+ * on a pooled daemon thread otherwise. At most {@code maxConcurrency} calls run at
+ * once. Each call is interrupted once it exceeds its timeout, which defaults to
+ * the IPFS object's connect timeout plus its read timeout (none if the read
+ * timeout is 0).
+ *
+ * Results are collected as the calls finish. Once a call has failed, no further
+ * inputs are submitted, the calls still running are cancelled and that failure
+ * is thrown.
+ */
+public class IPFSBulk implements Closeable {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ipfs-bulk-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final IPFS ipfs;
+    private final Semaphore permits;
+    private final long callTimeoutMillis;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    public IPFSBulk(IPFS ipfs, int maxConcurrency) {
+        this(ipfs, maxConcurrency, ipfs.getReadTimeoutMillis() == 0 ? 0 :
+                (long) ipfs.getConnectTimeoutMillis() + ipfs.getReadTimeoutMillis());
+    }
+
+    /**
+     * @param callTimeoutMillis limit for each call, 0 for none
+     */
+    public IPFSBulk(IPFS ipfs, int maxConcurrency, long callTimeoutMillis) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("max concurrency must be positive");
+        if (callTimeoutMillis < 0)
+            throw new IllegalArgumentException("call timeout must be zero or positive");
+        this.ipfs = ipfs;
+        this.permits = new Semaphore(maxConcurrency);
+        this.callTimeoutMillis = callTimeoutMillis;
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newCachedThreadPool(daemonThreads());
+    }
+
+    /**
+     * @return true if calls run on virtual threads, false if on platform threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public long getCallTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * Adds every file with {@link IPFS#add(NamedStreamable)}.
+     * @return the nodes returned for each file, in input order
+     */
+    public List<List<MerkleNode>> addAll(List<NamedStreamable> files) throws IOException {
+        return runAll(files, ipfs::add);
+    }
+
+    /**
+     * @return the contents of each hash, in input order
+     */
+    public List<byte[]> catAll(List<Multihash> hashes) throws IOException {
+        return runAll(hashes, ipfs::cat);
+    }
+
+    /**
+     * Pins every hash recursively with {@link IPFS.Pin#add(Multihash)}.
+     * @return the pins reported for each hash, in input order
+     */
+    public List<List<Multihash>> pinAll(List<Multihash> hashes) throws IOException {
+        return runAll(hashes, ipfs.pin::add);
+    }
+
+    /**
+     * Runs any blocking call once per input.
+     */
+    public <T, R> List<R> runAll(List<T> inputs, Call<T, R> call) throws IOException {
+        CompletionService<R> completion = new ExecutorCompletionService<>(executor);
+        // Calls submitted and not collected yet, with their input position
+        Map<Future<R>, Integer> pending = new HashMap<>();
+        List<R> results = new ArrayList<>(Collections.nCopies(inputs.size(), null));
+        // Set by a failing call before it frees its permit, which may be before its future is completed
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                T input = inputs.get(i);
+                permits.acquire();
+                try {
+                    Future<R> done;
+                    while ((done = completion.poll()) != null)
+                        collect(done, pending, results);
+                    // Wait for the failed call to complete, collecting it throws its failure
+                    while (failed.get())
+                        collect(completion.take(), pending, results);
+                    pending.put(completion.submit(() -> {
+                        try {
+                            return withTimeout(call, input);
+                        } catch (Throwable t) {
+                            failed.set(true);
+                            throw t;
+                        } finally {
+                            permits.release();
+                        }
+                    }), i);
+                } catch (IOException | RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            while (!pending.isEmpty())
+                collect(completion.take(), pending, results);
+            return results;
+        } catch (InterruptedException e) {
+            cancel(pending.keySet());
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted running bulk IPFS calls");
+        } catch (IOException | RuntimeException e) {
+            cancel(pending.keySet());
+            throw e;
+        }
+    }
+
+    /**
+     * A blocking IPFS call on one input.
+     */
+    @FunctionalInterface
+    public interface Call<T, R> {
+        R apply(T input) throws IOException;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // Interrupts the calling thread if the call outlives its timeout
+    private <T, R> R withTimeout(Call<T, R> call, T input) throws IOException {
+        if (callTimeoutMillis == 0)
+            return call.apply(input);
+        Thread thread = Thread.currentThread();
+        // 0: running, 1: finished, 2: timed out
+        AtomicInteger state = new AtomicInteger();
+        ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            if (state.compareAndSet(0, 2))
+                thread.interrupt();
+        }, callTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            return call.apply(input);
+        } catch (IOException | RuntimeException e) {
+            if (state.get() == 2)
+                throw timedOut(e);
+            throw e;
+        } finally {
+            timer.cancel(false);
+            // Clear an interrupt that arrived after the call was done
+            if (!state.compareAndSet(0, 1))
+                Thread.interrupted();
+        }
+    }
+
+    private InterruptedIOException timedOut(Exception cause) {
+        InterruptedIOException e = new InterruptedIOException("IPFS call timed out after " + callTimeoutMillis + " ms");
+        e.initCause(cause);
+        return e;
+    }
+
+    // Stores the result of a finished call, or throws its failure
+    private static <R> void collect(Future<R> done, Map<Future<R>, Integer> pending, List<R> results) throws IOException, InterruptedException {
+        int position = pending.remove(done);
+        try {
+            results.set(position, done.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException("Call " + position + " failed: " + cause, cause);
+        }
+    }
+
+    private static void cancel(Collection<? extends Future<?>> futures) {
+        for (Future<?> f : futures)
+            f.cancel(true);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() where available, found reflectively to still run on older JVMs
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // Preview feature not enabled on Java 19/20
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "ipfs-bulk-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
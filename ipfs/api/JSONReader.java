@@ -0,0 +1,583 @@
+package ipfs.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A pull parser for JSON that works directly on UTF-8 bytes, either in memory or
+ * read incrementally from a stream.
+ *
+ * The values built by {@link #parse(byte[])} and {@link #parseStream(byte[])} are
+ * the same as those of {@link JSONParser}: objects are LinkedHashMaps, arrays are
+ * ArrayLists, strings are kept exactly as written (escape sequences are not
+ * decoded), and numbers are Integer, Long or Double, whichever is the first to
+ * hold the value. Numbers are parsed without going through exceptions, and the
+ * object keys used by the IPFS API are shared instances rather than new Strings.
+ *
+ * Tokens can also be pulled one at a time with {@link #next()}:
+ * <pre>
+ *     JSONReader r = new JSONReader(in);
+ *     while (r.next() != JSONReader.Token.END) ...
+ * </pre>
+ *
+ * Malformed input raises an IllegalStateException, as with JSONParser.
+ */
+public final class JSONReader implements Closeable {
+
+    /**
+     * Reads one value from the reader's current position into a typed object.
+     */
+    public interface Decoder<T> {
+        T read(JSONReader reader) throws IOException;
+    }
+
+    public enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        // No more values in the input
+        END
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final byte ARRAY = 1;
+    private static final byte OBJECT = 2;
+
+    private static final String[] KEYS = {
+            "Hash", "Name", "Size", "Type", "Links", "Key", "Keys", "Ref", "Err", "Message", "Code", "Cid",
+            "Bytes", "Objects", "Data", "Version", "Commit", "Repo", "System", "Golang", "ID", "Id",
+            "Addrs", "Addr", "Peers", "Peer", "Latency", "Muxer", "Streams", "Direction", "Pins", "Count",
+            "Path", "Value", "Extra", "Strings", "Entries", "NumObjects", "RepoSize", "StorageMax", "RepoPath",
+            "CumulativeSize", "BlockSize", "LinksSize", "DataSize", "NumLinks", "Progress", "Responses",
+            "PublicKey", "AgentVersion", "ProtocolVersion", "Addresses", "Protocols", "Target", "Tsize",
+            "from", "data", "seqno", "topicIDs", "key", "signature", "Mode", "Mtime", "Blocks", "Local",
+            "WithLocality", "SizeLocal", "Extensions", "Stats"
+    };
+    // Open addressing table over KEYS, indexed by keyHash
+    private static final String[] KEY_TABLE = new String[256];
+    private static final byte[][] KEY_BYTES = new byte[256][];
+
+    static {
+        for (String key : KEYS) {
+            byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+            int i = keyHash(bytes, 0, bytes.length);
+            while (KEY_TABLE[i] != null)
+                i = (i + 1) & (KEY_TABLE.length - 1);
+            KEY_TABLE[i] = key;
+            KEY_BYTES[i] = bytes;
+        }
+    }
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    // Input offset of buf[0], for error messages
+    private long base;
+
+    private byte[] stack = new byte[16];
+    private int depth;
+    // Inside an object, a name has been read and its value comes next
+    private boolean afterName;
+
+    private Token token;
+    private String string;
+    private long longValue;
+    private double doubleValue;
+    private boolean isDouble;
+    private boolean booleanValue;
+
+    /**
+     * Reads from a stream, which is only read as far as the tokens that are pulled.
+     */
+    public JSONReader(InputStream in) {
+        this.in = in;
+        this.buf = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    public JSONReader(byte[] json) {
+        this(json, 0, json.length);
+    }
+
+    public JSONReader(byte[] json, int offset, int length) {
+        this.in = null;
+        this.buf = json;
+        this.pos = offset;
+        this.limit = offset + length;
+        this.base = -offset;
+    }
+
+    /**
+     * @return the first value of the input, or null if it is empty; the rest of the input is ignored
+     */
+    public static Object parse(byte[] json) {
+        return parse(json, 0, json.length);
+    }
+
+    public static Object parse(byte[] json, int offset, int length) {
+        try {
+            return new JSONReader(json, offset, length).readValue();
+        } catch (IOException e) {
+            // Cannot happen without a stream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses the remaining bytes of the buffer without changing its position.
+     */
+    public static Object parse(ByteBuffer json) {
+        if (json.hasArray())
+            return parse(json.array(), json.arrayOffset() + json.position(), json.remaining());
+        byte[] copy = new byte[json.remaining()];
+        json.duplicate().get(copy);
+        return parse(copy);
+    }
+
+    public static Object parse(InputStream json) throws IOException {
+        return new JSONReader(json).readValue();
+    }
+
+    /**
+     * @return every value of a concatenated (e.g. newline-delimited) JSON input
+     */
+    public static List<Object> parseStream(byte[] json) {
+        try {
+            return new JSONReader(json).readAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static List<Object> parseStream(InputStream json) throws IOException {
+        return new JSONReader(json).readAll();
+    }
+
+    // ---------------------------
+    // Pull API
+    // ---------------------------
+
+    /**
+     * @return the next token; {@link Token#END} once the input is exhausted
+     */
+    public Token next() throws IOException {
+        int c = peek();
+        byte context = depth == 0 ? 0 : stack[depth - 1];
+        if (context == OBJECT && !afterName) {
+            if (c == ',')
+                c = skip();
+            if (c == '}') {
+                pos++;
+                depth--;
+                return token = Token.END_OBJECT;
+            }
+            if (c != '"')
+                throw error(c < 0 ? "unterminated object" : "expected a name");
+            string = readKey();
+            if (peek() != ':')
+                throw error("expected ':' after name");
+            pos++;
+            afterName = true;
+            return token = Token.NAME;
+        }
+        if (context == ARRAY) {
+            if (c == ',')
+                c = skip();
+            if (c == ']') {
+                pos++;
+                depth--;
+                return token = Token.END_ARRAY;
+            }
+        }
+        if (c < 0) {
+            if (depth > 0)
+                throw error(context == OBJECT ? "unterminated object" : "unterminated array");
+            return token = Token.END;
+        }
+        afterName = false;
+        switch (c) {
+            case '{':
+                pos++;
+                push(OBJECT);
+                return token = Token.START_OBJECT;
+            case '[':
+                pos++;
+                push(ARRAY);
+                return token = Token.START_ARRAY;
+            case '"':
+                string = readString();
+                return token = Token.STRING;
+            case 't':
+                literal("true");
+                booleanValue = true;
+                return token = Token.BOOLEAN;
+            case 'f':
+                literal("false");
+                booleanValue = false;
+                return token = Token.BOOLEAN;
+            case 'n':
+                literal("null");
+                return token = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber();
+                    return token = Token.NUMBER;
+                }
+                throw error("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * @return true if another value (or, inside an object, another name) follows at the current level
+     */
+    public boolean hasNext() throws IOException {
+        int c = peek();
+        byte context = depth == 0 ? 0 : stack[depth - 1];
+        if (context != 0 && c == ',')
+            c = skip();
+        if (context == OBJECT && !afterName)
+            return c == '"';
+        if (context == ARRAY)
+            return c >= 0 && c != ']';
+        return c >= 0;
+    }
+
+    /**
+     * @return the last token returned by {@link #next()}
+     */
+    public Token token() {
+        return token;
+    }
+
+    /**
+     * @return the current NAME or STRING, as written in the input
+     */
+    public String getString() {
+        if (token != Token.NAME && token != Token.STRING)
+            throw new IllegalStateException("Current token is " + token + ", not a string");
+        return string;
+    }
+
+    /**
+     * @return the current NUMBER as an Integer, Long or Double
+     */
+    public Number getNumber() {
+        checkNumber();
+        if (isDouble)
+            return doubleValue;
+        if (longValue == (int) longValue)
+            return (int) longValue;
+        return longValue;
+    }
+
+    public long getLong() {
+        checkNumber();
+        return isDouble ? (long) doubleValue : longValue;
+    }
+
+    public int getInt() {
+        return (int) getLong();
+    }
+
+    public double getDouble() {
+        checkNumber();
+        return isDouble ? doubleValue : longValue;
+    }
+
+    public boolean getBoolean() {
+        if (token != Token.BOOLEAN)
+            throw new IllegalStateException("Current token is " + token + ", not a boolean");
+        return booleanValue;
+    }
+
+    /**
+     * Reads the next value as Maps, Lists, Strings, Numbers and Booleans.
+     * @return the value, or null for a JSON null or at the end of the input
+     */
+    public Object readValue() throws IOException {
+        return readValue(next());
+    }
+
+    /**
+     * Consumes the start of an object, so that its fields can be read with {@link #nextName()}.
+     */
+    public void beginObject() throws IOException {
+        expect(Token.START_OBJECT);
+    }
+
+    /**
+     * @return the name of the next field of the current object, or null once the object has ended
+     */
+    public String nextName() throws IOException {
+        Token t = next();
+        if (t == Token.END_OBJECT)
+            return null;
+        if (t != Token.NAME)
+            throw error("expected a name, found " + t);
+        return string;
+    }
+
+    /**
+     * Reads an array whose elements are decoded one at a time; a JSON null reads as an empty list.
+     */
+    public <T> List<T> readArray(Decoder<T> decoder) throws IOException {
+        Token t = next();
+        if (t == Token.NULL)
+            return Collections.emptyList();
+        if (t != Token.START_ARRAY)
+            throw error("expected an array, found " + t);
+        List<T> res = new ArrayList<>();
+        while (hasNext())
+            res.add(decoder.read(this));
+        expect(Token.END_ARRAY);
+        return res;
+    }
+
+    /**
+     * Skips the next value, including everything nested in it.
+     */
+    public void skipValue() throws IOException {
+        Token t = next();
+        if (t == Token.NAME)
+            throw error("expected a value");
+        if (t != Token.START_OBJECT && t != Token.START_ARRAY)
+            return;
+        int target = depth - 1;
+        while (depth > target)
+            if (next() == Token.END)
+                throw error("unexpected end of input");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
+    private List<Object> readAll() throws IOException {
+        List<Object> res = new ArrayList<>();
+        while (hasNext())
+            res.add(readValue());
+        return res;
+    }
+
+    private Object readValue(Token t) throws IOException {
+        switch (t) {
+            case START_OBJECT: {
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (next() != Token.END_OBJECT) {
+                    String key = string;
+                    map.put(key, readValue(next()));
+                }
+                return map;
+            }
+            case START_ARRAY: {
+                List<Object> list = new ArrayList<>();
+                Token e;
+                while ((e = next()) != Token.END_ARRAY)
+                    list.add(readValue(e));
+                return list;
+            }
+            case STRING:
+                return string;
+            case NUMBER:
+                return getNumber();
+            case BOOLEAN:
+                return booleanValue;
+            case NULL:
+            case END:
+                return null;
+            default:
+                throw error("unexpected " + t);
+        }
+    }
+
+    // ---------------------------
+    // Scanning
+    // ---------------------------
+
+    // The next non-whitespace byte without consuming it, or -1 at the end of the input
+    private int peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill())
+                return -1;
+            int b = buf[pos] & 0xff;
+            if (b > ' ' || !Character.isWhitespace(b))
+                return b;
+            pos++;
+        }
+    }
+
+    // Consumes the current byte and peeks at the one after it
+    private int skip() throws IOException {
+        pos++;
+        return peek();
+    }
+
+    /**
+     * Makes more input available after {@code buf[limit]}, keeping everything from {@code pos}.
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if (in == null)
+            return false;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            base += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length)
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        int r = in.read(buf, limit, buf.length - limit);
+        if (r < 0)
+            return false;
+        limit += r;
+        return true;
+    }
+
+    // Byte at pos + offset, reading more input if needed; -1 at the end of the input
+    private int at(int offset) throws IOException {
+        while (pos + offset >= limit)
+            if (!fill())
+                return -1;
+        return buf[pos + offset] & 0xff;
+    }
+
+    // Length of the string starting at pos, including both quotes
+    private int scanString() throws IOException {
+        boolean escape = false;
+        int i = 1;
+        while (true) {
+            byte[] b = buf;
+            int start = pos;
+            int end = limit - start;
+            for (; i < end; i++) {
+                byte c = b[start + i];
+                if (c == '"') {
+                    if (!escape)
+                        return i + 1;
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = !escape;
+                } else {
+                    escape = false;
+                }
+            }
+            // Offsets are relative to pos, which fill() may move
+            if (!fill())
+                throw error("unterminated string");
+        }
+    }
+
+    private String readString() throws IOException {
+        int length = scanString();
+        String s = new String(buf, pos + 1, length - 2, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    private String readKey() throws IOException {
+        int length = scanString();
+        int start = pos + 1;
+        int n = length - 2;
+        pos += length;
+        int i = keyHash(buf, start, n);
+        String key;
+        while ((key = KEY_TABLE[i]) != null) {
+            byte[] k = KEY_BYTES[i];
+            if (k.length == n && Arrays.equals(k, 0, n, buf, start, start + n))
+                return key;
+            i = (i + 1) & (KEY_TABLE.length - 1);
+        }
+        return new String(buf, start, n, StandardCharsets.UTF_8);
+    }
+
+    private void readNumber() throws IOException {
+        int i = 0;
+        boolean negative = at(0) == '-';
+        if (negative)
+            i++;
+        long value = 0;
+        boolean overflow = false;
+        int digits = 0;
+        int b;
+        while ((b = at(i)) >= '0' && b <= '9') {
+            int d = b - '0';
+            // Accumulated negatively so that Long.MIN_VALUE fits
+            if (value < (Long.MIN_VALUE + d) / 10)
+                overflow = true;
+            else
+                value = value * 10 - d;
+            digits++;
+            i++;
+        }
+        if (digits == 0)
+            throw error("invalid number");
+        boolean fraction = false;
+        if (b == '.') {
+            fraction = true;
+            i++;
+            int start = i;
+            while ((b = at(i)) >= '0' && b <= '9')
+                i++;
+            if (i == start)
+                throw error("invalid number");
+        }
+        if (b == 'e' || b == 'E') {
+            fraction = true;
+            i++;
+            b = at(i);
+            if (b == '+' || b == '-')
+                i++;
+            int start = i;
+            while ((b = at(i)) >= '0' && b <= '9')
+                i++;
+            if (i == start)
+                throw error("invalid number");
+        }
+        if (!negative && value == Long.MIN_VALUE)
+            overflow = true;
+        isDouble = fraction || overflow;
+        if (isDouble)
+            doubleValue = Double.parseDouble(new String(buf, pos, i, StandardCharsets.US_ASCII));
+        else
+            longValue = negative ? value : -value;
+        pos += i;
+    }
+
+    private void literal(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++)
+            if (at(i) != word.charAt(i))
+                throw error("unexpected literal");
+        pos += word.length();
+    }
+
+    private void push(byte context) {
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = context;
+        afterName = false;
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token t = next();
+        if (t != expected)
+            throw error("expected " + expected + ", found " + t);
+    }
+
+    private void checkNumber() {
+        if (token != Token.NUMBER)
+            throw new IllegalStateException("Current token is " + token + ", not a number");
+    }
+
+    private IllegalStateException error(String message) {
+        return new IllegalStateException("json " + message + " at " + (base + pos));
+    }
+
+    private static int keyHash(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        return (len * 31 + b[off] * 7 + b[off + len - 1]) & (KEY_TABLE.length - 1);
+    }
+}
@@ -0,0 +1,131 @@
+package ipfs.api;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Reads a newline-delimited JSON response one value at a time, as the lines arrive.
+ *
+ * Only the current line is held in memory, in a buffer that is reused between
+ * lines; a single line longer than {@link #MAX_LINE_BYTES} fails the read.
+ * Closing the reader closes the response.
+ */
+final class JsonLines<T> implements Iterator<T>, Closeable {
+
+    /**
+     * Decodes one line from its raw bytes, which are only valid during the call.
+     */
+    interface LineDecoder<T> {
+        /**
+         * @return the line's value, or null to skip the line
+         */
+        T read(byte[] line, int length) throws IOException;
+    }
+
+    static final int MAX_LINE_BYTES = 16 * 1024 * 1024;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[8192];
+    private int pos;
+    private int limit;
+    private byte[] line = new byte[1024];
+    private final LineDecoder<T> decoder;
+    private T next;
+    private boolean done;
+
+    JsonLines(InputStream in, JSONReader.Decoder<T> decoder) {
+        this(in, (LineDecoder<T>) (line, length) -> {
+            JSONReader reader = new JSONReader(line, 0, length);
+            // Blank lines (and null values) carry no result
+            return reader.hasNext() ? decoder.read(reader) : null;
+        });
+    }
+
+    JsonLines(InputStream in, LineDecoder<T> decoder) {
+        this.in = in;
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return the response's lines, each decoded straight from its bytes; the stream must be closed
+     */
+    static <T> Stream<T> stream(InputStream in, JSONReader.Decoder<T> decoder) {
+        JsonLines<T> lines = new JsonLines<>(in, decoder);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(lines, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(lines::closeUnchecked);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null)
+            return true;
+        if (done)
+            return false;
+        try {
+            int length;
+            while ((length = readLine()) >= 0) {
+                next = decoder.read(line, length);
+                if (next != null)
+                    return true;
+            }
+            done = true;
+            close();
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        T res = next;
+        next = null;
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        in.close();
+    }
+
+    private void closeUnchecked() {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reads the next line without its terminator into line, returning its length or -1 at the end of the response
+    private int readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (pos == limit) {
+                limit = in.read(buf);
+                pos = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    return length == 0 ? -1 : length;
+                }
+            }
+            int start = pos;
+            while (pos < limit && buf[pos] != '\n')
+                pos++;
+            int n = pos - start;
+            if (length + n > MAX_LINE_BYTES)
+                throw new IOException("JSON line longer than " + MAX_LINE_BYTES + " bytes");
+            if (length + n > line.length)
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + n));
+            System.arraycopy(buf, start, line, length, n);
+            length += n;
+            if (pos < limit) {
+                pos++;
+                return length;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ipfs.api;
 import io.ipfs.cid.*;
 import io.ipfs.multihash.*;
 
+import java.io.*;
 import java.util.*;
 
 public class KeyInfo {
@@ -41,4 +42,19 @@ public class KeyInfo {
         Map<String, String> m = (Map) json;
         return new KeyInfo(m.get("Name"), Cid.decode(m.get("Id")));
     }
+
+    public static KeyInfo read(JSONReader r) throws IOException {
+        String name = null, id = null;
+        r.beginObject();
+        String field;
+        while ((field = r.nextName()) != null) {
+            if (field.equals("Name"))
+                name = (String) r.readValue();
+            else if (field.equals("Id"))
+                id = (String) r.readValue();
+            else
+                r.skipValue();
+        }
+        return new KeyInfo(name, Cid.decode(id));
+    }
 }
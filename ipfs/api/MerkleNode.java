@@ -3,6 +3,7 @@ package ipfs.api;
 import io.ipfs.cid.*;
 import io.ipfs.multihash.Multihash;
 
+import java.io.*;
 import java.util.*;
 import java.util.stream.*;
 
@@ -23,8 +24,18 @@ public class MerkleNode {
                       Optional<Integer> type,
                       List<MerkleNode> links,
                       Optional<byte[]> data) {
+        this(Cid.decode(hash), name, size, largeSize, type, links, data);
+    }
+
+    public MerkleNode(Multihash hash,
+                      Optional<String> name,
+                      Optional<Integer> size,
+                      Optional<String> largeSize,
+                      Optional<Integer> type,
+                      List<MerkleNode> links,
+                      Optional<byte[]> data) {
         this.name = name;
-        this.hash = Cid.decode(hash);
+        this.hash = hash;
         this.size = size;
         this.largeSize = largeSize;
         this.type = type;
@@ -85,6 +96,93 @@ public class MerkleNode {
         return new MerkleNode(hash, name, size, largeSize, type, links, data);
     }
 
+    /**
+     * Decodes the next value of the reader the same way as {@link #fromJSON(Object)}, but
+     * straight from the response bytes, without building a Map for the node or its links.
+     */
+    public static MerkleNode read(JSONReader r) throws IOException {
+        JSONReader.Token t = r.next();
+        if (t == JSONReader.Token.STRING)
+            return new MerkleNode(r.getString());
+        if (t != JSONReader.Token.START_OBJECT)
+            throw new IllegalStateException("Incorrect json for MerkleNode: " + t);
+        String hash = null, key = null, cid = null;
+        Optional<String> name = Optional.empty();
+        Object rawSize = null, rawType = null, message = null;
+        boolean hasType = false;
+        List<MerkleNode> links = Collections.emptyList();
+        Optional<byte[]> data = Optional.empty();
+        String field;
+        while ((field = r.nextName()) != null) {
+            switch (field) {
+                case "Hash":
+                    hash = (String) r.readValue();
+                    break;
+                case "Key":
+                    key = (String) r.readValue();
+                    break;
+                case "Cid":
+                    cid = readCid(r);
+                    break;
+                case "Name":
+                    name = Optional.of((String) r.readValue());
+                    break;
+                case "Size":
+                    rawSize = r.readValue();
+                    break;
+                case "Type":
+                    rawType = r.readValue();
+                    hasType = true;
+                    break;
+                case "Links":
+                    links = r.readArray(MerkleNode::read);
+                    break;
+                case "Data":
+                    data = Optional.of(((String) r.readValue()).getBytes());
+                    break;
+                case "Message":
+                    message = r.readValue();
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        if ("error".equals(rawType))
+            throw new IllegalStateException("Remote IPFS error: " + message);
+        if (hash == null)
+            hash = key;
+        if (hash == null)
+            hash = cid;
+        Optional<Integer> size = rawSize instanceof Integer ?
+                Optional.of((Integer) rawSize) :
+                Optional.empty();
+        Optional<String> largeSize = rawSize instanceof String ?
+                Optional.of((String) rawSize) :
+                Optional.empty();
+        Optional<Integer> type = hasType ?
+                Optional.of((Integer) rawType) :
+                Optional.empty();
+        return new MerkleNode(hash, name, size, largeSize, type, links, data);
+    }
+
+    // A CID link is written as {"/": "<cid>"}
+    private static String readCid(JSONReader r) throws IOException {
+        JSONReader.Token t = r.next();
+        if (t == JSONReader.Token.STRING)
+            return r.getString();
+        if (t != JSONReader.Token.START_OBJECT)
+            throw new IllegalStateException("Incorrect json for Cid: " + t);
+        String cid = null;
+        String field;
+        while ((field = r.nextName()) != null) {
+            if (field.equals("/"))
+                cid = (String) r.readValue();
+            else
+                r.skipValue();
+        }
+        return cid;
+    }
+
     public Object toJSON() {
         Map<String, Object> res = new TreeMap<>();
         res.put("Links", links.stream().map(x -> x.hash).collect(Collectors.toList()));
@@ -2,32 +2,52 @@ package ipfs.api;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
 import java.nio.file.*;
 import java.util.*;
 
+/**
+ * Builds a multipart/form-data request and sends it through a {@link Transport}.
+ *
+ * Parts are collected as they are added; file contents are only opened and
+ * streamed when the request is sent by {@link #finish()}. When every part knows
+ * its size the request is sent with an exact Content-Length.
+ */
 public class Multipart {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
     private final String boundary;
     private static final String LINE_FEED = "\r\n";
-    private HttpURLConnection httpConn;
+    private final URL url;
+    private final Transport transport;
+    private final int chunkSize;
     private String charset;
-    private OutputStream out;
+    // Either byte[] (boundaries and headers) or NamedStreamable (file contents), in body order
+    private final List<Object> parts = new ArrayList<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
 
     public Multipart(String requestURL, String charset) {
+        this(requestURL, charset, Transport.defaultTransport());
+    }
+
+    public Multipart(String requestURL, String charset, Transport transport) {
+        this(requestURL, charset, transport, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize size of the buffer file contents are copied through when they are not already in memory
+     */
+    public Multipart(String requestURL, String charset, Transport transport, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive");
         this.charset = charset;
+        this.transport = transport;
+        this.chunkSize = chunkSize;
 
         boundary = createBoundary();
 
         try {
-            URL url = new URL(requestURL);
-            httpConn = (HttpURLConnection) url.openConnection();
-            httpConn.setUseCaches(false);
-            httpConn.setDoOutput(true);
-            httpConn.setDoInput(true);
-            httpConn.setRequestProperty("Expect", "100-continue");
-            httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-            httpConn.setRequestProperty("User-Agent", "Java IPFS Client");
-            httpConn.setChunkedStreamingMode(4096);
-            out = httpConn.getOutputStream();
+            url = new URL(requestURL);
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
@@ -43,7 +63,7 @@ public class Multipart {
     }
     
     private Multipart append(String value) throws IOException {
-        out.write(value.getBytes(charset));
+        pending.write(value.getBytes(charset));
         return this;
     }
 
@@ -54,7 +74,6 @@ public class Multipart {
         append("Content-Type: text/plain; charset=").append(charset).append(LINE_FEED);
         append(LINE_FEED);
         append(value).append(LINE_FEED);
-        out.flush();
     }
 
     public void addSubtree(Path parentPath, NamedStreamable dir) throws IOException {
@@ -75,7 +94,6 @@ public class Multipart {
         append("Content-Transfer-Encoding: binary").append(LINE_FEED);
         append(LINE_FEED);
         append(LINE_FEED);
-        out.flush();
     }
 
     private static String encode(String in) {
@@ -96,64 +114,155 @@ public class Multipart {
         append("Content-Type: application/octet-stream").append(LINE_FEED);
         append("Content-Transfer-Encoding: binary").append(LINE_FEED);
         append(LINE_FEED);
-        out.flush();
-
-        try {
-            InputStream inputStream = uploadFile.getInputStream();
-            byte[] buffer = new byte[4096];
-            int r;
-            while ((r = inputStream.read(buffer)) != -1)
-                out.write(buffer, 0, r);
-            out.flush();
-            inputStream.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
+        flushPending();
+        parts.add(uploadFile);
 
         append(LINE_FEED);
-        out.flush();
     }
 
     public void addHeaderField(String name, String value) throws IOException {
         append(name + ": " + value).append(LINE_FEED);
-        out.flush();
     }
 
     public String finish() throws IOException {
         StringBuilder b = new StringBuilder();
 
+        Transport.Body body = finishBody();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                transport.post(url, headers(), body, 0, 0)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                b.append(line);
+            }
+            return b.toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends the request and returns the response body as it arrives, e.g. to parse
+     * a newline-delimited JSON response one line at a time. The stream must be closed.
+     * It is sent with {@link Transport#postStream}, outside the transport's limit of short calls.
+     */
+    public InputStream finishStream() throws IOException {
+        return transport.postStream(url, headers(), finishBody(), 0, 0);
+    }
+
+    /**
+     * Closes the body without sending it, for callers that send the request themselves.
+     */
+    Transport.Body finishBody() throws IOException {
         append("--" + boundary + "--").append(LINE_FEED);
-        out.flush();
-        out.close();
+        flushPending();
+        return new Body(parts, chunkSize);
+    }
 
-        try {
-            int status = httpConn.getResponseCode();
-            if (status == HttpURLConnection.HTTP_OK) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(
-                        httpConn.getInputStream()));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    b.append(line);
-                }
-                reader.close();
-                httpConn.disconnect();
-            } else {
-                try {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(
-                            httpConn.getInputStream()));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        b.append(line);
+    Map<String, String> headers() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "multipart/form-data; boundary=" + boundary);
+        headers.put("User-Agent", "Java IPFS Client");
+        return headers;
+    }
+
+    URL getUrl() {
+        return url;
+    }
+
+    private void flushPending() {
+        if (pending.size() > 0) {
+            parts.add(pending.toByteArray());
+            pending.reset();
+        }
+    }
+
+    // The request body: the collected parts, with file contents read as they are sent
+    private static final class Body implements Transport.Body {
+        private final List<Object> parts;
+        private final int chunkSize;
+
+        Body(List<Object> parts, int chunkSize) {
+            this.parts = parts;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public long length() {
+            long length = 0;
+            for (Object part : parts) {
+                long size = part instanceof byte[] ? ((byte[]) part).length : ((NamedStreamable) part).size();
+                if (size < 0)
+                    return -1;
+                length += size;
+            }
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            byte[] buffer = new byte[chunkSize];
+            for (Object part : parts) {
+                if (part instanceof byte[])
+                    out.write((byte[]) part);
+                else
+                    ((NamedStreamable) part).writeTo(out, buffer);
+            }
+        }
+
+        @Override
+        public Transport.BufferSource openBuffers(int ignored) {
+            Iterator<Object> it = parts.iterator();
+            return new Transport.BufferSource() {
+                private Transport.BufferSource current;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    while (true) {
+                        if (current != null) {
+                            ByteBuffer b = current.next();
+                            if (b != null)
+                                return b;
+                            current.close();
+                            current = null;
+                        }
+                        if (!it.hasNext())
+                            return null;
+                        Object part = it.next();
+                        if (part instanceof byte[])
+                            return ByteBuffer.wrap((byte[]) part).asReadOnlyBuffer();
+                        current = ((NamedStreamable) part).openBuffers(chunkSize);
                     }
-                    reader.close();
-                } catch (Throwable t) {
                 }
-                throw new IOException("Server returned status: " + status + " with body: " + b.toString() + " and Trailer header: " + httpConn.getHeaderFields().get("Trailer"));
-            }
 
-            return b.toString();
-        } catch (IOException e) {
-            throw new RuntimeException(e.getMessage(), e);
+                @Override
+                public void close() throws IOException {
+                    if (current != null)
+                        current.close();
+                }
+            };
+        }
+
+        @Override
+        public InputStream open() {
+            Iterator<Object> it = parts.iterator();
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                @Override
+                public boolean hasMoreElements() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    Object part = it.next();
+                    if (part instanceof byte[])
+                        return new ByteArrayInputStream((byte[]) part);
+                    try {
+                        return ((NamedStreamable) part).getInputStream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
         }
     }
 }
@@ -2,6 +2,9 @@ package ipfs.api;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.stream.*;
 
@@ -15,6 +18,31 @@ public interface NamedStreamable
 
     boolean isDirectory();
 
+    /**
+     * @return the number of bytes of the content, or -1 if it is only known once read
+     */
+    default long size() {
+        return -1;
+    }
+
+    /**
+     * Writes the content to {@code out}, using {@code buffer} for any copying.
+     */
+    default void writeTo(OutputStream out, byte[] buffer) throws IOException {
+        try (InputStream in = getInputStream()) {
+            int r;
+            while ((r = in.read(buffer)) != -1)
+                out.write(buffer, 0, r);
+        }
+    }
+
+    /**
+     * @return the content as buffers; see {@link Transport.Body#openBuffers(int)}
+     */
+    default Transport.BufferSource openBuffers(int chunkSize) throws IOException {
+        return Transport.BufferSource.of(getInputStream(), chunkSize);
+    }
+
     default byte[] getContents() throws IOException {
         InputStream in = getInputStream();
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
@@ -116,6 +144,102 @@ public interface NamedStreamable
             return new ByteArrayInputStream(data);
         }
 
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+            out.write(data);
+        }
+
+        @Override
+        public Transport.BufferSource openBuffers(int chunkSize) {
+            return Transport.BufferSource.slices(ByteBuffer.wrap(data), chunkSize);
+        }
+
+        @Override
+        public List<NamedStreamable> getChildren() {
+            return Collections.emptyList();
+        }
+
+        public Optional<String> getName() {
+            return name;
+        }
+    }
+
+    /**
+     * The remaining bytes of a buffer, e.g. a {@link MappedByteBuffer}. The buffer's
+     * position is not changed and its content is never copied onto the heap for an upload.
+     */
+    class ByteBufferWrapper implements NamedStreamable {
+        private final Optional<String> name;
+        private final ByteBuffer data;
+
+        public ByteBufferWrapper(ByteBuffer data) {
+            this(Optional.empty(), data);
+        }
+
+        public ByteBufferWrapper(String name, ByteBuffer data) {
+            this(Optional.of(name), data);
+        }
+
+        public ByteBufferWrapper(Optional<String> name, ByteBuffer data) {
+            this.name = name;
+            this.data = data.asReadOnlyBuffer();
+        }
+
+        public boolean isDirectory() {
+            return false;
+        }
+
+        public InputStream getInputStream() {
+            ByteBuffer src = data.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return src.hasRemaining() ? src.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0)
+                        return 0;
+                    if (!src.hasRemaining())
+                        return -1;
+                    int n = Math.min(len, src.remaining());
+                    src.get(b, off, n);
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return src.remaining();
+                }
+            };
+        }
+
+        @Override
+        public long size() {
+            return data.remaining();
+        }
+
+        @Override
+        public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+            ByteBuffer src = data.duplicate();
+            while (src.hasRemaining()) {
+                int n = Math.min(buffer.length, src.remaining());
+                src.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+
+        @Override
+        public Transport.BufferSource openBuffers(int chunkSize) {
+            return Transport.BufferSource.slices(data, chunkSize);
+        }
+
         @Override
         public List<NamedStreamable> getChildren() {
             return Collections.emptyList();
@@ -126,6 +250,171 @@ public interface NamedStreamable
         }
     }
 
+    /**
+     * A whole file mapped into memory once, and uploaded from the page cache.
+     */
+    class MappedFileWrapper extends ByteBufferWrapper {
+
+        public MappedFileWrapper(Path file) throws IOException {
+            this(file.getFileName().toString(), file);
+        }
+
+        public MappedFileWrapper(String name, Path file) throws IOException {
+            super(name, map(file));
+        }
+
+        private static MappedByteBuffer map(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("File too large to map in one buffer, use a FileChannelWrapper: " + file);
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+    }
+
+    /**
+     * A region of a file read through a {@link FileChannel} with positional reads,
+     * so any size works and the channel's own position is left alone.
+     *
+     * When built from a Path, the file is opened for each upload and closed after it;
+     * a channel passed in is left open for its owner to close.
+     */
+    class FileChannelWrapper implements NamedStreamable {
+        // Files are mapped in windows of this size when handed out as buffers
+        private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+        private final Optional<String> name;
+        private final Path path;
+        private final FileChannel channel;
+        private final long position;
+        private final long size;
+
+        public FileChannelWrapper(Path path) throws IOException {
+            this.name = Optional.of(path.getFileName().toString());
+            this.path = path;
+            this.channel = null;
+            this.position = 0;
+            this.size = Files.size(path);
+        }
+
+        public FileChannelWrapper(Optional<String> name, FileChannel channel, long position, long size) {
+            if (position < 0 || size < 0)
+                throw new IllegalArgumentException("position and size must be zero or positive");
+            this.name = name;
+            this.path = null;
+            this.channel = channel;
+            this.position = position;
+            this.size = size;
+        }
+
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            FileChannel ch = open();
+            return new InputStream() {
+                private long offset = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0)
+                        return 0;
+                    if (offset >= size)
+                        return -1;
+                    int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, size - offset)), position + offset);
+                    if (n < 0)
+                        throw new EOFException("File is shorter than " + size + " bytes");
+                    offset += n;
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    release(ch);
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+            FileChannel ch = open();
+            try {
+                ByteBuffer b = ByteBuffer.wrap(buffer);
+                long offset = 0;
+                while (offset < size) {
+                    b.clear().limit((int) Math.min(buffer.length, size - offset));
+                    int n = ch.read(b, position + offset);
+                    if (n < 0)
+                        throw new EOFException("File is shorter than " + size + " bytes");
+                    out.write(buffer, 0, n);
+                    offset += n;
+                }
+            } finally {
+                release(ch);
+            }
+        }
+
+        @Override
+        public Transport.BufferSource openBuffers(int chunkSize) throws IOException {
+            FileChannel ch = open();
+            return new Transport.BufferSource() {
+                private long offset = 0;
+                private Transport.BufferSource window;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    while (true) {
+                        if (window != null) {
+                            ByteBuffer b = window.next();
+                            if (b != null)
+                                return b;
+                        }
+                        if (offset >= size)
+                            return null;
+                        long length = Math.min(MAP_WINDOW, size - offset);
+                        window = Transport.BufferSource.slices(ch.map(FileChannel.MapMode.READ_ONLY, position + offset, length), chunkSize);
+                        offset += length;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    release(ch);
+                }
+            };
+        }
+
+        @Override
+        public List<NamedStreamable> getChildren() {
+            return Collections.emptyList();
+        }
+
+        public Optional<String> getName() {
+            return name;
+        }
+
+        private FileChannel open() throws IOException {
+            return channel != null ? channel : FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        private void release(FileChannel ch) throws IOException {
+            if (ch != channel)
+                ch.close();
+        }
+    }
+
     class DirWrapper implements NamedStreamable {
 
         private final String name;
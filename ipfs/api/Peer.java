@@ -4,6 +4,7 @@ import io.ipfs.cid.*;
 import io.ipfs.multiaddr.*;
 import io.ipfs.multihash.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.function.*;
 
@@ -31,6 +32,48 @@ public class Peer {
         return new Peer(new MultiAddress(val.apply("Addr")), Cid.decode(val.apply("Peer")), latency, val.apply("Muxer"), val.apply("Streams"));
     }
 
+    /**
+     * Decodes a peer straight from the response, as {@link #fromJSON(Object)} does from its Map.
+     */
+    public static Peer read(JSONReader r) throws IOException {
+        return build(readFields(r));
+    }
+
+    /**
+     * Like {@link #read(JSONReader)}, but returns null for a peer whose fields cannot be decoded.
+     * The peer's value is consumed either way, so the rest of the response can still be read.
+     */
+    static Peer readIfValid(JSONReader r) throws IOException {
+        Object[] fields = readFields(r);
+        try {
+            return build(fields);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final List<String> FIELDS = Arrays.asList("Addr", "Peer", "Latency", "Muxer", "Streams");
+
+    private static Object[] readFields(JSONReader r) throws IOException {
+        Object[] fields = new Object[FIELDS.size()];
+        r.beginObject();
+        String field;
+        while ((field = r.nextName()) != null) {
+            int i = FIELDS.indexOf(field);
+            if (i >= 0)
+                fields[i] = r.readValue();
+            else
+                r.skipValue();
+        }
+        return fields;
+    }
+
+    private static Peer build(Object[] fields) {
+        String latency = (String) fields[2];
+        return new Peer(new MultiAddress((String) fields[0]), Cid.decode((String) fields[1]),
+                latency.length() > 0 ? Long.parseLong(latency) : -1, (String) fields[3], fields[4]);
+    }
+
     @Override
     public String toString() {
         return id + "@" + address;
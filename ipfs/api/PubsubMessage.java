@@ -0,0 +1,97 @@
+package ipfs.api;
+
+import io.ipfs.multibase.Multibase;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * One message received on a pubsub subscription.
+ *
+ * Only the raw JSON line is kept when the message arrives; it is parsed on
+ * the first call to a getter, and the multibase fields are decoded only when
+ * asked for. Consumers that just forward or count messages never pay for
+ * decoding them.
+ */
+public final class PubsubMessage {
+
+    private final byte[] json;
+    private Map<String, Object> fields;
+
+    PubsubMessage(byte[] json) {
+        this.json = json;
+    }
+
+    /**
+     * @return the message as received from the daemon, one JSON object in UTF-8
+     */
+    public byte[] getJson() {
+        return json.clone();
+    }
+
+    /**
+     * @return the peer ID of the sender
+     */
+    public String getFrom() {
+        return (String) fields().get("from");
+    }
+
+    /**
+     * @return the decoded payload
+     */
+    public byte[] getData() {
+        return decode((String) fields().get("data"));
+    }
+
+    public String getDataAsString() {
+        return new String(getData(), StandardCharsets.UTF_8);
+    }
+
+    public byte[] getSeqno() {
+        return decode((String) fields().get("seqno"));
+    }
+
+    /**
+     * @return the topics the message was published to, decoded
+     */
+    public List<String> getTopicIDs() {
+        Object topics = fields().get("topicIDs");
+        if (!(topics instanceof List))
+            return Collections.emptyList();
+        List<String> res = new ArrayList<>();
+        for (Object topic : (List) topics)
+            res.add(new String(decode((String) topic), StandardCharsets.UTF_8));
+        return res;
+    }
+
+    /**
+     * @return the raw fields, with the multibase values still encoded, as returned by {@link IPFS.Pubsub#sub(String)}
+     */
+    public Map<String, Object> toMap() {
+        return fields();
+    }
+
+    @Override
+    public String toString() {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    // JSON objects are always parsed into maps with String keys
+    @SuppressWarnings("unchecked")
+    private synchronized Map<String, Object> fields() {
+        if (fields == null) {
+            Object parsed = JSONReader.parse(json);
+            if (!(parsed instanceof Map))
+                throw new IllegalStateException("Incorrect json for pubsub message: " + this);
+            fields = Collections.unmodifiableMap((Map<String, Object>) parsed);
+        }
+        return fields;
+    }
+
+    private static byte[] decode(String multibase) {
+        if (multibase == null)
+            return new byte[0];
+        return Multibase.decode(multibase);
+    }
+}
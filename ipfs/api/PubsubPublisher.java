@@ -0,0 +1,399 @@
+package ipfs.api;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Publishes messages to one pubsub topic without making the caller wait for the daemon.
+ *
+ * {@link #publish(byte[])} queues the message and returns a future that
+ * completes once the daemon has accepted it. Up to {@code maxInFlight}
+ * sender threads take messages off the queue and post them concurrently over
+ * the transport's keep-alive connections, so throughput is not limited to one
+ * message per round-trip. With more than one sender, messages may reach the
+ * daemon out of order, as they may on the network anyway; a single sender
+ * keeps them in order. When the queue is full, publish blocks until there
+ * is room.
+ *
+ * With a linger window, a sender that takes a message waits up to that long
+ * for more, and publishes everything it collected, up to the batch limits, as
+ * one pubsub message with the payloads separated by {@link #BATCH_SEPARATOR}.
+ * Subscribers must then split what they receive, so with batching on,
+ * publish rejects payloads that contain the separator. Batching is off by
+ * default.
+ */
+public final class PubsubPublisher implements Closeable {
+
+    public static final byte BATCH_SEPARATOR = '\n';
+
+    interface Sender {
+        void send(byte[] data) throws IOException;
+    }
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final Pending STOP = new Pending(new byte[0]);
+
+    private final Sender sender;
+    private final String topic;
+    private final long lingerNanos;
+    private final int maxBatchMessages;
+    private final int maxBatchBytes;
+    private final BlockingQueue<Pending> queue;
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean closed;
+    // Held shared by publish and exclusively by close, so nothing is queued once close has begun
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    // Messages published and not yet completed; flush() waits on it
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    PubsubPublisher(Sender sender, String topic, Config config) {
+        this.sender = sender;
+        this.topic = topic;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(config.lingerMillis);
+        this.maxBatchMessages = config.maxBatchMessages;
+        this.maxBatchBytes = config.maxBatchBytes;
+        this.queue = new ArrayBlockingQueue<>(config.queueCapacity);
+        for (int i = 0; i < config.maxInFlight; i++) {
+            Thread t = new Thread(this::run, "ipfs-pubsub-pub-" + THREAD_COUNT.incrementAndGet());
+            t.setDaemon(true);
+            senders.add(t);
+        }
+        for (Thread t : senders)
+            t.start();
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Queues the message, blocking while the queue is full.
+     * @return a future completed when the daemon has accepted the message, or failed with its IOException
+     * @throws IllegalArgumentException if batching is enabled and the message contains {@link #BATCH_SEPARATOR}
+     */
+    public CompletableFuture<Void> publish(byte[] data) throws InterruptedException {
+        if (lingerNanos > 0) {
+            for (byte b : data)
+                if (b == BATCH_SEPARATOR)
+                    throw new IllegalArgumentException("Batched pubsub message for " + topic + " contains the batch separator");
+        }
+        Pending p = new Pending(data.clone());
+        closeLock.readLock().lockInterruptibly();
+        try {
+            if (closed)
+                throw new IllegalStateException("Publisher for " + topic + " is closed");
+            outstanding.incrementAndGet();
+            try {
+                queue.put(p);
+            } catch (InterruptedException e) {
+                completed();
+                throw e;
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return p.done;
+    }
+
+    public CompletableFuture<Void> publish(String data) throws InterruptedException {
+        return publish(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Waits until no message is pending: every message published has been accepted by the daemon or has failed.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (outstanding) {
+            while (outstanding.get() > 0)
+                outstanding.wait();
+        }
+    }
+
+    /**
+     * Publishes what is already queued, then stops the sender threads; later publish calls fail.
+     */
+    @Override
+    public void close() {
+        // Waits for publish calls already putting a message, which the senders are still draining
+        closeLock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            for (int i = 0; i < senders.size(); i++)
+                queue.put(STOP);
+            for (Thread t : senders)
+                t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Thread t : senders)
+                t.interrupt();
+        }
+        // Messages left behind by senders interrupted before reaching their STOP
+        Pending p;
+        while ((p = queue.poll()) != null)
+            if (p != STOP)
+                fail(p, new IOException("Publisher for " + topic + " is closed"));
+    }
+
+    public Stats stats() {
+        return new Stats(published.get(), failed.get(), requests.get(), queue.size(), inFlight.get(),
+                totalLatencyNanos.get(), maxLatencyNanos.get());
+    }
+
+    /**
+     * A snapshot of the publisher's counters. Latency runs from publish() to the daemon's answer.
+     */
+    public static final class Stats {
+        public final long published;
+        public final long failed;
+        public final long requests;
+        public final int queueDepth;
+        // Requests being sent, each carrying one message or one batch
+        public final int inFlight;
+        public final double meanLatencyMs;
+        public final double maxLatencyMs;
+
+        private Stats(long published, long failed, long requests, int queueDepth, int inFlight,
+                      long totalLatencyNanos, long maxLatencyNanos) {
+            this.published = published;
+            this.failed = failed;
+            this.requests = requests;
+            this.queueDepth = queueDepth;
+            this.inFlight = inFlight;
+            long done = published + failed;
+            this.meanLatencyMs = done == 0 ? 0 : totalLatencyNanos / 1_000_000.0 / done;
+            this.maxLatencyMs = maxLatencyNanos / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return "published=" + published + ", failed=" + failed + ", requests=" + requests
+                    + ", queueDepth=" + queueDepth + ", inFlight=" + inFlight
+                    + String.format(", meanLatencyMs=%.3f, maxLatencyMs=%.3f", meanLatencyMs, maxLatencyMs);
+        }
+    }
+
+    // ---------------------------
+    // Senders
+    // ---------------------------
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            Pending first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == STOP)
+                return;
+            inFlight.incrementAndGet();
+            try {
+                batch.add(first);
+                boolean stop = collect(batch, first.data.length);
+                send(batch);
+                if (stop)
+                    return;
+            } finally {
+                batch.clear();
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    // Adds more messages to the batch within the linger window; returns true if the sender should stop after it
+    private boolean collect(List<Pending> batch, int bytes) {
+        try {
+            return collectWithin(batch, bytes);
+        } catch (InterruptedException e) {
+            // Still send what was collected; take() then sees the interrupt
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private boolean collectWithin(List<Pending> batch, int bytes) throws InterruptedException {
+        if (lingerNanos == 0)
+            return false;
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatchMessages) {
+            Pending next = queue.peek();
+            if (next != null && next != STOP && bytes + 1 + next.data.length > maxBatchBytes)
+                return false;
+            long left = deadline - System.nanoTime();
+            next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null)
+                return false;
+            if (next == STOP)
+                return true;
+            batch.add(next);
+            bytes += 1 + next.data.length;
+        }
+        return false;
+    }
+
+    private void send(List<Pending> batch) {
+        requests.incrementAndGet();
+        try {
+            sender.send(batch.size() == 1 ? batch.get(0).data : join(batch));
+            for (Pending p : batch) {
+                record(p);
+                published.incrementAndGet();
+                p.done.complete(null);
+                completed();
+            }
+        } catch (IOException | RuntimeException e) {
+            IOException err = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+            for (Pending p : batch)
+                fail(p, err);
+        }
+    }
+
+    private void fail(Pending p, IOException err) {
+        record(p);
+        failed.incrementAndGet();
+        p.done.completeExceptionally(err);
+        completed();
+    }
+
+    private void record(Pending p) {
+        long latency = System.nanoTime() - p.queuedAt;
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    private void completed() {
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (outstanding) {
+                outstanding.notifyAll();
+            }
+        }
+    }
+
+    private static byte[] join(List<Pending> batch) {
+        int size = batch.size() - 1;
+        for (Pending p : batch)
+            size += p.data.length;
+        byte[] res = new byte[size];
+        int pos = 0;
+        for (Pending p : batch) {
+            if (pos > 0)
+                res[pos++] = BATCH_SEPARATOR;
+            System.arraycopy(p.data, 0, res, pos, p.data.length);
+            pos += p.data.length;
+        }
+        return res;
+    }
+
+    private static final class Pending {
+        final byte[] data;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /*
+    Example usage:
+            PubsubPublisher publisher = ipfs.pubsub.publisher("chain-blocks", PubsubPublisher.Config.Builder.newInstance()
+                    .setMaxInFlight(8)
+                    .setLingerMillis(5)
+                    .build());
+            publisher.publish(blockHash);
+     */
+    public static final class Config {
+        private final int maxInFlight;
+        private final int queueCapacity;
+        private final long lingerMillis;
+        private final int maxBatchMessages;
+        private final int maxBatchBytes;
+
+        private Config(Builder builder) {
+            this.maxInFlight = builder.maxInFlight;
+            this.queueCapacity = builder.queueCapacity;
+            this.lingerMillis = builder.lingerMillis;
+            this.maxBatchMessages = builder.maxBatchMessages;
+            this.maxBatchBytes = builder.maxBatchBytes;
+        }
+
+        public static Config defaults() {
+            return Builder.newInstance().build();
+        }
+
+        public static class Builder {
+            private int maxInFlight = 4;
+            private int queueCapacity = 4096;
+            private long lingerMillis = 0;
+            private int maxBatchMessages = 256;
+            private int maxBatchBytes = 256 * 1024;
+
+            private Builder() {}
+
+            public static Builder newInstance() {
+                return new Builder();
+            }
+
+            /**
+             * Sets how many messages may be posted to the daemon at once, one sender thread each.
+             */
+            public Builder setMaxInFlight(int maxInFlight) {
+                this.maxInFlight = positive(maxInFlight, "max in flight");
+                return this;
+            }
+
+            public Builder setQueueCapacity(int queueCapacity) {
+                this.queueCapacity = positive(queueCapacity, "queue capacity");
+                return this;
+            }
+
+            /**
+             * Enables batching: a sender waits up to this long for more messages to publish together; 0 disables it.
+             */
+            public Builder setLingerMillis(long lingerMillis) {
+                if (lingerMillis < 0)
+                    throw new IllegalArgumentException("linger must be zero or positive");
+                this.lingerMillis = lingerMillis;
+                return this;
+            }
+
+            public Builder setMaxBatchMessages(int maxBatchMessages) {
+                this.maxBatchMessages = positive(maxBatchMessages, "max batch messages");
+                return this;
+            }
+
+            public Builder setMaxBatchBytes(int maxBatchBytes) {
+                this.maxBatchBytes = positive(maxBatchBytes, "max batch bytes");
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+
+            private static int positive(int value, String what) {
+                if (value <= 0)
+                    throw new IllegalArgumentException(what + " must be positive");
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package ipfs.api;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.stream.*;
+
+/**
+ * A pubsub subscription, published to one {@link Flow.Subscriber} with demand-based back-pressure.
+ *
+ * The daemon's NDJSON response is read on a dedicated daemon thread, one
+ * complete line per message however the bytes arrive. Messages wait in a
+ * buffer of at most {@code capacity} entries until the subscriber requests
+ * them. Once the buffer is full, the {@link Overflow} policy applies:
+ * BLOCK stops reading, which leaves the daemon to apply its own limits to
+ * the slow reader, while the DROP policies keep reading and discard
+ * messages. The subscriber is called on the given executor, never on the
+ * reading thread, and never concurrently.
+ *
+ * The request to the daemon is sent when a subscriber subscribes, and closed
+ * when it cancels, when {@link #close()} is called or when the response ends.
+ * A subscription can only be subscribed to once.
+ *
+ * Each subscribed subscription holds one HTTP connection to the daemon, and
+ * one reading thread, until it ends. The request is sent as an open-ended one
+ * ({@link Transport#postStream}), so with the default {@link HttpClientTransport}
+ * it counts against the transport's stream limit rather than the pool used by
+ * other calls, and open subscriptions never block them.
+ */
+public final class PubsubSubscription implements Flow.Publisher<PubsubMessage>, Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public enum Overflow {
+        /** Stop reading from the daemon until the subscriber catches up */
+        BLOCK,
+        /** Discard the oldest buffered message to make room */
+        DROP_OLDEST,
+        /** Discard the message that just arrived */
+        DROP_NEWEST
+    }
+
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final Opener opener;
+    private final String topic;
+    private final int capacity;
+    private final Overflow overflow;
+    private final Executor executor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // Guarded by lock
+    private final ArrayDeque<PubsubMessage> buffer;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicLong demand = new AtomicLong();
+    // Work-in-progress counter, so that only one delivery task runs at a time
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Flow.Subscriber<? super PubsubMessage> subscriber;
+    private volatile InputStream in;
+    private volatile boolean cancelled;
+    private volatile boolean readerDone;
+    private volatile Throwable readerError;
+    private boolean terminated;
+
+    PubsubSubscription(Opener opener, String topic, int capacity, Overflow overflow, Executor executor) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.opener = opener;
+        this.topic = topic;
+        this.capacity = capacity;
+        this.overflow = Objects.requireNonNull(overflow, "overflow");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.buffer = new ArrayDeque<>(Math.min(capacity, 1024));
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the number of messages read from the daemon so far, including dropped ones
+     */
+    public long received() {
+        return received.get();
+    }
+
+    /**
+     * @return the number of messages discarded because the buffer was full
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of messages waiting for demand
+     */
+    public int buffered() {
+        lock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PubsubMessage> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {}
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("Pubsub subscription to " + topic + " already has a subscriber"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    readerError = new IllegalArgumentException("non-positive request: " + n);
+                    stop();
+                    signal();
+                    return;
+                }
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+                signal();
+            }
+
+            @Override
+            public void cancel() {
+                close();
+            }
+        });
+        Thread reader = new Thread(this::read, "ipfs-pubsub-" + THREAD_COUNT.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Subscribes a blocking consumer and returns the messages as a stream, which must be closed.
+     * The stream requests more messages as it is consumed, so a slow consumer applies the overflow policy.
+     */
+    public Stream<PubsubMessage> stream() {
+        BlockingSubscriber sub = new BlockingSubscriber(capacity);
+        subscribe(sub);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(sub, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(sub::cancel);
+    }
+
+    /**
+     * Cancels the subscription and closes the request to the daemon; buffered messages are discarded.
+     */
+    @Override
+    public void close() {
+        cancelled = true;
+        stop();
+        signal();
+    }
+
+    // ---------------------------
+    // Reading
+    // ---------------------------
+
+    private void read() {
+        try {
+            InputStream stream = opener.open();
+            in = stream;
+            if (cancelled) {
+                stream.close();
+                return;
+            }
+            try (JsonLines<PubsubMessage> lines = new JsonLines<>(stream, PubsubSubscription::message)) {
+                while (!cancelled && lines.hasNext()) {
+                    offer(lines.next());
+                    signal();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!cancelled)
+                readerError = e instanceof UncheckedIOException ? e.getCause() : e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readerDone = true;
+            signal();
+        }
+    }
+
+    // Keeps the raw line; decoding waits until the message is used
+    private static PubsubMessage message(byte[] line, int length) {
+        int start = 0;
+        while (start < length && (line[start] == ' ' || line[start] == '\r' || line[start] == '\t'))
+            start++;
+        if (start == length)
+            return null;
+        return new PubsubMessage(Arrays.copyOfRange(line, start, length));
+    }
+
+    private void offer(PubsubMessage message) throws InterruptedException {
+        received.incrementAndGet();
+        lock.lock();
+        try {
+            while (buffer.size() >= capacity && !cancelled) {
+                switch (overflow) {
+                    case BLOCK:
+                        notFull.await();
+                        break;
+                    case DROP_OLDEST:
+                        buffer.pollFirst();
+                        dropped.incrementAndGet();
+                        break;
+                    case DROP_NEWEST:
+                        dropped.incrementAndGet();
+                        return;
+                }
+            }
+            if (!cancelled)
+                buffer.addLast(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PubsubMessage poll() {
+        lock.lock();
+        try {
+            PubsubMessage next = buffer.pollFirst();
+            if (next != null)
+                notFull.signal();
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wakes the reader and closes the response, which ends a read blocked on the socket
+    private void stop() {
+        lock.lock();
+        try {
+            if (cancelled)
+                buffer.clear();
+            cancelled = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        InputStream stream = in;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // ---------------------------
+    // Delivery
+    // ---------------------------
+
+    private void signal() {
+        if (subscriber != null && wip.getAndIncrement() == 0)
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        Flow.Subscriber<? super PubsubMessage> s = subscriber;
+        do {
+            if (terminated)
+                continue;
+            try {
+                while (demand.get() > 0) {
+                    PubsubMessage next = poll();
+                    if (next == null)
+                        break;
+                    demand.decrementAndGet();
+                    s.onNext(next);
+                }
+                // Messages read before a failure are still delivered, unless the subscription was cancelled
+                boolean drained = buffered() == 0;
+                if (readerError != null && (drained || cancelled)) {
+                    terminated = true;
+                    s.onError(readerError);
+                } else if (readerDone && drained) {
+                    terminated = true;
+                    if (!cancelled)
+                        s.onComplete();
+                }
+            } catch (RuntimeException | Error e) {
+                // A subscriber that throws is cancelled, as Flow requires
+                terminated = true;
+                close();
+                s.onError(e);
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    // Hands messages to a thread that pulls them, requesting one more for each taken
+    private static final class BlockingSubscriber implements Flow.Subscriber<PubsubMessage>, Iterator<PubsubMessage> {
+        private static final Object END = new Object();
+
+        private final int capacity;
+        private final BlockingQueue<Object> queue;
+        private Flow.Subscription subscription;
+        private Object next;
+
+        BlockingSubscriber(int capacity) {
+            this.capacity = capacity;
+            this.queue = new ArrayBlockingQueue<>(capacity + 1);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(capacity);
+        }
+
+        @Override
+        public void onNext(PubsubMessage item) {
+            queue.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            queue.add(END);
+        }
+
+        void cancel() {
+            subscription.cancel();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    throw new RuntimeException(new InterruptedIOException("Interrupted waiting for pubsub messages"));
+                }
+            }
+            if (next instanceof Throwable) {
+                Throwable t = (Throwable) next;
+                if (t instanceof IOException)
+                    throw new UncheckedIOException((IOException) t);
+                throw new RuntimeException(t.getMessage(), t);
+            }
+            return next != END;
+        }
+
+        @Override
+        public PubsubMessage next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            PubsubMessage res = (PubsubMessage) next;
+            next = null;
+            subscription.request(1);
+            return res;
+        }
+    }
+}
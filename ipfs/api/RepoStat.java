@@ -1,5 +1,6 @@
 package ipfs.api;
 
+import java.io.IOException;
 import java.util.Map;
 
 public class RepoStat {
@@ -27,4 +28,37 @@ public class RepoStat {
 
         return new RepoStat(repoSize, storageMax, numObjects, repoPath, version);
     }
+
+    /**
+     * Decodes a repo stat straight from the response, as {@link #fromJson(Object)} does from its Map.
+     */
+    public static RepoStat read(JSONReader r) throws IOException {
+        Object repoSize = null, storageMax = null, numObjects = null;
+        String repoPath = null, version = null;
+        r.beginObject();
+        String field;
+        while ((field = r.nextName()) != null) {
+            switch (field) {
+                case "RepoSize":
+                    repoSize = r.readValue();
+                    break;
+                case "StorageMax":
+                    storageMax = r.readValue();
+                    break;
+                case "NumObjects":
+                    numObjects = r.readValue();
+                    break;
+                case "RepoPath":
+                    repoPath = (String) r.readValue();
+                    break;
+                case "Version":
+                    version = (String) r.readValue();
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        return new RepoStat(Long.parseLong(repoSize.toString()), Long.parseLong(storageMax.toString()),
+                Long.parseLong(numObjects.toString()), repoPath, version);
+    }
 }
@@ -0,0 +1,77 @@
+package ipfs.api;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Coalesces concurrent identical reads, so that they share one request and one response.
+ *
+ * The first caller for a key runs the load and gets its result itself, so a
+ * load nobody joins is never copied; callers arriving while it is in flight
+ * wait for it and get a copy of its result, or its failure. The key is
+ * forgotten as soon as the load completes, so nothing is cached: a later
+ * call loads again. Only reads whose result is fixed by the key, such as
+ * those addressed by an immutable CID, may go through here.
+ */
+final class SingleFlight {
+
+    interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong joins = new AtomicLong();
+
+    byte[] run(String key, Loader loader) throws IOException {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            joins.incrementAndGet();
+            return await(existing).clone();
+        }
+        loads.incrementAndGet();
+        try {
+            byte[] res = loader.load();
+            mine.complete(res);
+            return res;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return the number of loads that were actually run
+     */
+    long loads() {
+        return loads.get();
+    }
+
+    /**
+     * @return the number of calls that were served by another caller's load
+     */
+    long joins() {
+        return joins.get();
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            // Only this caller stops waiting; the load carries on for the others
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shared request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw new IOException(cause.getMessage(), cause);
+            if (cause instanceof RuntimeException)
+                throw new RuntimeException(cause.getMessage(), cause);
+            throw (Error) cause;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package ipfs.api;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Extracts a tar stream into a directory as it is read, with a fixed amount of buffering.
+ *
+ * Every entry must resolve inside the target directory: absolute names,
+ * names that climb out with "..", and writes through a symlink that points
+ * elsewhere are all rejected with an IOException. Existing files are
+ * overwritten.
+ *
+ * With a parallelism above one, file contents are handed to that many writer
+ * threads in chunks from a fixed pool of buffers, so disk writes overlap with
+ * reading the archive; the chunks of one file always go to the same writer,
+ * in order. Memory use is bounded by the pool, not by the size of the
+ * archive or of any entry.
+ */
+final class TarExtractor {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    // Never write through a symlink, even one created by a later entry while a writer lags behind
+    private static final OpenOption[] WRITE_OPTIONS = {StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING, LinkOption.NOFOLLOW_LINKS};
+
+    private final Path target;
+    private final Path realTarget;
+    // Directories already checked to resolve inside the target
+    private final Set<Path> safeDirs = new HashSet<>();
+
+    TarExtractor(Path target) throws IOException {
+        Files.createDirectories(target);
+        this.target = target.toAbsolutePath().normalize();
+        this.realTarget = target.toRealPath();
+        safeDirs.add(this.target);
+    }
+
+    void extract(InputStream tar, int parallelism) throws IOException {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+        if (parallelism == 1)
+            extractSerially(tar);
+        else
+            extractInParallel(tar, parallelism);
+    }
+
+    private void extractSerially(InputStream tar) throws IOException {
+        byte[] buf = new byte[CHUNK_SIZE];
+        try (TarReader reader = new TarReader(tar)) {
+            TarReader.Entry e;
+            while ((e = reader.next()) != null) {
+                Path path = prepare(e);
+                if (path == null)
+                    continue;
+                try (OutputStream out = Files.newOutputStream(path, WRITE_OPTIONS)) {
+                    InputStream in = reader.content();
+                    int n;
+                    while ((n = in.read(buf)) > 0)
+                        out.write(buf, 0, n);
+                }
+            }
+        }
+    }
+
+    private void extractInParallel(InputStream tar, int parallelism) throws IOException {
+        // Two buffers per writer: one being written while the next is filled
+        int buffers = 2 * parallelism;
+        BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++)
+            pool.add(ByteBuffer.allocate(CHUNK_SIZE));
+        List<Writer> writers = new ArrayList<>();
+        ExecutorService threads = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "ipfs-get-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        try (TarReader reader = new TarReader(tar)) {
+            for (int i = 0; i < parallelism; i++) {
+                Writer w = new Writer(pool, buffers);
+                writers.add(w);
+                threads.submit(w);
+            }
+            TarReader.Entry e;
+            int files = 0;
+            while ((e = reader.next()) != null) {
+                Path path = prepare(e);
+                if (path == null)
+                    continue;
+                Writer w = writers.get(files++ % parallelism);
+                w.checkFailed();
+                w.put(new Chunk(path, null));
+                InputStream in = reader.content();
+                while (true) {
+                    ByteBuffer buf = pool.take();
+                    int n = in.readNBytes(buf.array(), 0, buf.capacity());
+                    if (n == 0) {
+                        pool.add(buf);
+                        break;
+                    }
+                    buf.limit(n);
+                    w.put(new Chunk(null, buf));
+                }
+            }
+            for (Writer w : writers)
+                w.put(Chunk.END);
+            threads.shutdown();
+            if (!threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+                throw new IOException("Tar writers did not finish");
+            for (Writer w : writers)
+                w.checkFailed();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted extracting tar");
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    // Creates what the entry needs and returns the file to write its content to, or null if it has none
+    private Path prepare(TarReader.Entry e) throws IOException {
+        Path path = resolve(e.name);
+        switch (e.type) {
+            case DIRECTORY:
+                createDirectories(path);
+                return null;
+            case FILE:
+                createDirectories(path.getParent());
+                if (Files.isSymbolicLink(path))
+                    Files.delete(path);
+                return path;
+            case SYMLINK:
+                createDirectories(path.getParent());
+                // Swapping a checked directory for a link would redirect the files still to be written in it
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                    throw new IOException("Tar entry replaces a directory with a symlink: " + e.name);
+                Files.deleteIfExists(path);
+                Files.createSymbolicLink(path, Paths.get(e.linkName));
+                return null;
+            default:
+                // Hard links, devices and fifos are not produced by IPFS
+                return null;
+        }
+    }
+
+    private Path resolve(String name) throws IOException {
+        Path relative;
+        try {
+            relative = Paths.get(name);
+        } catch (InvalidPathException e) {
+            throw new IOException("Tar entry with a name this file system cannot hold: " + name, e);
+        }
+        if (relative.isAbsolute())
+            throw new IOException("Tar entry with an absolute path: " + name);
+        Path path = target.resolve(relative).normalize();
+        if (!path.startsWith(target))
+            throw new IOException("Tar entry outside the target directory: " + name);
+        return path;
+    }
+
+    // Creates the directory, checking that no symlink along the way leads out of the target
+    private void createDirectories(Path dir) throws IOException {
+        if (safeDirs.contains(dir))
+            return;
+        createDirectories(dir.getParent());
+        if (!Files.isDirectory(dir))
+            Files.createDirectories(dir);
+        if (!dir.toRealPath().startsWith(realTarget))
+            throw new IOException("Tar entry through a symlink outside the target directory: " + dir);
+        safeDirs.add(dir);
+    }
+
+    // A file to open (path set) or a buffer to append to the last opened one
+    private static final class Chunk {
+        static final Chunk END = new Chunk(null, null);
+
+        final Path path;
+        final ByteBuffer data;
+
+        Chunk(Path path, ByteBuffer data) {
+            this.path = path;
+            this.data = data;
+        }
+    }
+
+    private static final class Writer implements Callable<Void> {
+        private final BlockingQueue<Chunk> chunks;
+        private final BlockingQueue<ByteBuffer> pool;
+        private volatile IOException failure;
+
+        Writer(BlockingQueue<ByteBuffer> pool, int capacity) {
+            this.pool = pool;
+            // Bounded too, so a run of empty files cannot queue up without limit
+            this.chunks = new ArrayBlockingQueue<>(capacity + 1);
+        }
+
+        void put(Chunk c) throws InterruptedException {
+            chunks.put(c);
+        }
+
+        void checkFailed() throws IOException {
+            if (failure != null)
+                throw new IOException(failure.getMessage(), failure);
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            FileChannel out = null;
+            try {
+                while (true) {
+                    Chunk c = chunks.take();
+                    if (c == Chunk.END)
+                        break;
+                    if (c.data == null) {
+                        close(out);
+                        out = failure != null ? null : open(c.path);
+                        continue;
+                    }
+                    try {
+                        if (out != null && failure == null) {
+                            while (c.data.hasRemaining())
+                                out.write(c.data);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    } finally {
+                        c.data.clear();
+                        pool.add(c.data);
+                    }
+                }
+            } finally {
+                close(out);
+            }
+            return null;
+        }
+
+        private FileChannel open(Path path) {
+            try {
+                return FileChannel.open(path, WRITE_OPTIONS);
+            } catch (IOException e) {
+                failure = e;
+                return null;
+            }
+        }
+
+        private void close(FileChannel out) {
+            if (out == null)
+                return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package ipfs.api;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads a tar archive, as produced by {@code ipfs get}, one entry at a time from a stream.
+ *
+ * Only the current 512-byte header is held; an entry's content is read
+ * straight from the underlying stream through {@link #content()}, and
+ * whatever the caller leaves unread is skipped by the next call to
+ * {@link #next()}. Supports ustar, pax extended headers (path, linkpath,
+ * size) and GNU long names. Closing the reader closes the stream.
+ */
+public final class TarReader implements Closeable {
+
+    public enum Type { FILE, DIRECTORY, SYMLINK, OTHER }
+
+    /**
+     * One archive member; its content, if any, is read through {@link TarReader#content()}.
+     */
+    public static final class Entry {
+        public final String name;
+        public final Type type;
+        public final long size;
+        public final int mode;
+        public final String linkName;
+
+        Entry(String name, Type type, long size, int mode, String linkName) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.mode = mode;
+            this.linkName = linkName;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + name + (type == Type.SYMLINK ? " -> " + linkName : " (" + size + " bytes)");
+        }
+    }
+
+    /**
+     * Receives each entry in archive order, with a stream over its content that is only valid during the call.
+     */
+    public interface EntryHandler {
+        void accept(Entry entry, InputStream content) throws IOException;
+    }
+
+    private static final int BLOCK = 512;
+    // pax and GNU long-name records are read into memory, so they are capped
+    private static final int MAX_META_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private final InputStream content = new ContentStream();
+    private long remaining;
+    private int padding;
+    private boolean done;
+
+    public TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads every entry, handing each to {@code handler}; the stream is closed at the end.
+     */
+    public static void read(InputStream in, EntryHandler handler) throws IOException {
+        try (TarReader tar = new TarReader(in)) {
+            Entry e;
+            while ((e = tar.next()) != null)
+                handler.accept(e, tar.content());
+        }
+    }
+
+    /**
+     * Skips the rest of the current entry and reads the next header.
+     * @return the next entry, or null at the end of the archive
+     */
+    public Entry next() throws IOException {
+        if (done)
+            return null;
+        skipContent();
+        String longName = null, longLink = null;
+        Map<String, String> pax = Collections.emptyMap();
+        while (true) {
+            if (!readBlock()) {
+                done = true;
+                return null;
+            }
+            if (isZero(header)) {
+                // The end-of-archive marker is two zero blocks; the second one is not required
+                done = true;
+                return null;
+            }
+            verifyChecksum();
+            char flag = (char) header[156];
+            long size = parseNumber(124, 12);
+            if (size < 0)
+                throw new IOException("Invalid tar entry size: " + size);
+            switch (flag) {
+                case 'L':
+                    longName = cString(readMeta(size));
+                    continue;
+                case 'K':
+                    longLink = cString(readMeta(size));
+                    continue;
+                case 'x':
+                    pax = parsePax(readMeta(size));
+                    continue;
+                case 'g':
+                    startContent(size);
+                    skipContent();
+                    continue;
+                default:
+            }
+            String name = longName != null ? longName : headerName();
+            String link = longLink != null ? longLink : string(157, 100);
+            name = pax.getOrDefault("path", name);
+            link = pax.getOrDefault("linkpath", link);
+            if (pax.containsKey("size")) {
+                try {
+                    // Overflow fails to parse as well
+                    size = Long.parseLong(pax.get("size"));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid pax size: " + pax.get("size"));
+                }
+                if (size < 0)
+                    throw new IOException("Invalid pax size: " + pax.get("size"));
+            }
+            Type type;
+            switch (flag) {
+                case '0': case '\0': case '7':
+                    type = Type.FILE;
+                    break;
+                case '5':
+                    type = Type.DIRECTORY;
+                    break;
+                case '2':
+                    type = Type.SYMLINK;
+                    break;
+                default:
+                    type = Type.OTHER;
+            }
+            if (type == Type.FILE && name.endsWith("/"))
+                type = Type.DIRECTORY;
+            // Directories and links carry no data, whatever the size field says
+            startContent(type == Type.DIRECTORY || type == Type.SYMLINK ? 0 : size);
+            return new Entry(name, type, remaining, (int) parseNumber(100, 8), link);
+        }
+    }
+
+    /**
+     * @return a stream over the current entry's content; closing it does not close the archive
+     */
+    public InputStream content() {
+        return content;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        in.close();
+    }
+
+    // ---------------------------
+    // Headers
+    // ---------------------------
+
+    private boolean readBlock() throws IOException {
+        int n = in.readNBytes(header, 0, BLOCK);
+        if (n == 0)
+            return false;
+        if (n < BLOCK)
+            throw new EOFException("Truncated tar header");
+        return true;
+    }
+
+    private void verifyChecksum() throws IOException {
+        long stored = parseNumber(148, 8);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++)
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+        if (sum != stored)
+            throw new IOException("Bad tar header checksum");
+    }
+
+    private String headerName() {
+        String name = string(0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r';
+        if (ustar) {
+            String prefix = string(345, 155);
+            if (!prefix.isEmpty())
+                return prefix + "/" + name;
+        }
+        return name;
+    }
+
+    private String string(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0)
+            end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // Octal, or base-256 when the high bit of the first byte is set (GNU, for sizes over 8GB)
+    private long parseNumber(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long res = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++)
+                res = (res << 8) | (header[i] & 0xFF);
+            return res;
+        }
+        long res = 0;
+        int i = offset, end = offset + length;
+        while (i < end && (header[i] == ' ' || header[i] == 0))
+            i++;
+        for (; i < end && header[i] != 0 && header[i] != ' '; i++) {
+            if (header[i] < '0' || header[i] > '7')
+                throw new IOException("Invalid octal number in tar header");
+            res = (res << 3) | (header[i] - '0');
+        }
+        return res;
+    }
+
+    private byte[] readMeta(long size) throws IOException {
+        if (size > MAX_META_SIZE)
+            throw new IOException("Tar metadata entry of " + size + " bytes");
+        startContent(size);
+        byte[] res = content.readNBytes((int) size);
+        if (res.length < size)
+            throw new EOFException("Truncated tar metadata entry");
+        skipContent();
+        return res;
+    }
+
+    private static Map<String, String> parsePax(byte[] records) throws IOException {
+        Map<String, String> res = new HashMap<>();
+        int pos = 0;
+        while (pos < records.length) {
+            int space = pos;
+            while (space < records.length && records[space] != ' ')
+                space++;
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pax record");
+            }
+            int end = pos + length;
+            if (length <= 0 || end > records.length || records[end - 1] != '\n')
+                throw new IOException("Invalid pax record");
+            String record = new String(records, space + 1, end - space - 2, StandardCharsets.UTF_8);
+            int eq = record.indexOf('=');
+            if (eq > 0)
+                res.put(record.substring(0, eq), record.substring(eq + 1));
+            pos = end;
+        }
+        return res;
+    }
+
+    private static String cString(byte[] b) {
+        int end = 0;
+        while (end < b.length && b[end] != 0)
+            end++;
+        return new String(b, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZero(byte[] b) {
+        for (byte x : b)
+            if (x != 0)
+                return false;
+        return true;
+    }
+
+    // ---------------------------
+    // Content
+    // ---------------------------
+
+    private void startContent(long size) {
+        remaining = size;
+        padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+    }
+
+    private void skipContent() throws IOException {
+        long toSkip = remaining + padding;
+        remaining = 0;
+        padding = 0;
+        while (toSkip > 0) {
+            long n = in.skip(toSkip);
+            if (n <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException("Truncated tar entry");
+                n = 1;
+            }
+            toSkip -= n;
+        }
+    }
+
+    private final class ContentStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int c = in.read();
+            if (c < 0)
+                throw new EOFException("Truncated tar entry");
+            remaining--;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (remaining <= 0)
+                return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0)
+                throw new EOFException("Truncated tar entry");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
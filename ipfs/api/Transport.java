@@ -0,0 +1,172 @@
+package ipfs.api;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The HTTP layer under {@link IPFS} and {@link Multipart}.
+ *
+ * Every API call is a POST whose response body is returned as a stream. A
+ * transport may keep connections alive between calls, so callers must close
+ * (or fully read) every stream they get back.
+ *
+ * Implementations:
+ *  - {@link HttpClientTransport}: one shared java.net.http.HttpClient with pooled
+ *    keep-alive connections (the default, see {@link #defaultTransport()})
+ *  - {@link HttpURLConnectionTransport}: a connection per call, as the client used to do
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Sends a POST to {@code target}.
+     * @param connectTimeoutMillis 0 for no timeout; a pooled transport may use its own connect timeout instead
+     * @param readTimeoutMillis 0 for no timeout
+     * @return the response body, which must be closed
+     * @throws StatusException if the daemon answers with a non-2xx status
+     */
+    InputStream post(URL target, Map<String, String> headers, Body body,
+                     int connectTimeoutMillis, int readTimeoutMillis) throws IOException;
+
+    /**
+     * Sends a POST whose response the caller may keep open for as long as it likes: subscriptions,
+     * and responses handed to the caller as streams. A pooled transport does not count these
+     * against the limit of its short calls, so that open streams cannot starve them.
+     */
+    default InputStream postStream(URL target, Map<String, String> headers, Body body,
+                                   int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        return post(target, headers, body, connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    @Override
+    default void close() throws IOException {}
+
+    /**
+     * @return the transport used when none is given, shared by every IPFS instance;
+     * see {@link IPFS#withMaxConnections(int)} for an instance with a pool of its own
+     */
+    static Transport defaultTransport() {
+        return HttpClientTransport.shared();
+    }
+
+    /**
+     * A request body that can be written to a stream, or read from one when the
+     * transport pulls the body itself.
+     */
+    interface Body {
+
+        Body EMPTY = of(new byte[0]);
+
+        /**
+         * @return the length in bytes, or -1 if it is only known once written
+         */
+        long length();
+
+        void writeTo(OutputStream out) throws IOException;
+
+        /**
+         * @return the body as a new stream, may be called again if the request is retried
+         */
+        InputStream open() throws IOException;
+
+        /**
+         * The body as a sequence of buffers, for transports that write buffers directly.
+         * Sources that already hold their content in buffers return views of it instead of copies.
+         * @param chunkSize size of the buffers that have to be filled by copying
+         */
+        default BufferSource openBuffers(int chunkSize) throws IOException {
+            return BufferSource.of(open(), chunkSize);
+        }
+
+        static Body of(byte[] bytes) {
+            return new Body() {
+                @Override
+                public long length() {
+                    return bytes.length;
+                }
+
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(bytes);
+                }
+
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(bytes);
+                }
+            };
+        }
+    }
+
+    /**
+     * A pull-based sequence of buffers. Each returned buffer is handed over to the
+     * caller and is not touched by the source afterwards.
+     */
+    interface BufferSource extends Closeable {
+
+        /**
+         * @return the next non-empty buffer, or null at the end
+         */
+        ByteBuffer next() throws IOException;
+
+        /**
+         * @return the stream's content in freshly allocated chunks of up to {@code chunkSize} bytes
+         */
+        static BufferSource of(InputStream in, int chunkSize) {
+            return new BufferSource() {
+                @Override
+                public ByteBuffer next() throws IOException {
+                    byte[] chunk = new byte[chunkSize];
+                    int n = in.readNBytes(chunk, 0, chunkSize);
+                    return n == 0 ? null : ByteBuffer.wrap(chunk, 0, n);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+
+        /**
+         * @return read-only views of the buffer's remaining bytes, {@code chunkSize} bytes at a time
+         */
+        static BufferSource slices(ByteBuffer buffer, int chunkSize) {
+            ByteBuffer source = buffer.asReadOnlyBuffer();
+            return new BufferSource() {
+                @Override
+                public ByteBuffer next() {
+                    if (!source.hasRemaining())
+                        return null;
+                    int n = Math.min(chunkSize, source.remaining());
+                    ByteBuffer slice = source.slice();
+                    slice.limit(n);
+                    source.position(source.position() + n);
+                    return slice;
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+
+    /**
+     * A response with a non-2xx status, together with the daemon's error body.
+     */
+    class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+        public final String body;
+        public final List<String> trailer;
+
+        public StatusException(int status, String body, List<String> trailer) {
+            super("Server returned status: " + status + " with body: " + body + " and Trailer header: " + trailer);
+            this.status = status;
+            this.body = body;
+            this.trailer = trailer;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package ipfs.api;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+
+import java.io.*;
+import java.nio.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Computes locally the CID that {@code ipfs add} returns for a file, without contacting the daemon.
+ *
+ * It reproduces the daemon's default importer: a fixed-size chunker, the
+ * balanced layout with up to {@value #LINKS_PER_BLOCK} links per node, and
+ * SHA-256 dag-pb nodes with UnixFS file metadata. Leaves are either raw
+ * blocks or dag-pb UnixFS nodes, as with {@code --raw-leaves}. The matching
+ * add arguments come from {@link #toAddArgs()}.
+ *
+ * Only regular files are supported; directories, the trickle layout, the
+ * rabin/buzhash chunkers, inlining and other hash functions are not.
+ *
+ * Hashing streams the input once, holding one chunk and at most
+ * {@value #LINKS_PER_BLOCK} links per tree level in memory. Instances are immutable and thread-safe.
+ */
+public final class UnixFsHasher {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    // go-unixfs helpers.DefaultLinksPerBlock
+    public static final int LINKS_PER_BLOCK = 174;
+
+    // UnixFS Data.DataType.File
+    private static final int UNIXFS_FILE = 2;
+
+    private final int cidVersion;
+    private final boolean rawLeaves;
+    private final int chunkSize;
+
+    private UnixFsHasher(Builder builder) {
+        this.cidVersion = builder.cidVersion;
+        this.rawLeaves = builder.rawLeaves != null ? builder.rawLeaves : builder.cidVersion == 1;
+        this.chunkSize = builder.chunkSize;
+    }
+
+    public int getCidVersion() {
+        return cidVersion;
+    }
+
+    public boolean isRawLeaves() {
+        return rawLeaves;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the arguments that make {@code ipfs add} build the same DAG, and so return the same CID
+     */
+    public AddArgs toAddArgs() {
+        return AddArgs.Builder.newInstance()
+                .setCidVersion(cidVersion)
+                .setRawLeaves(rawLeaves)
+                .setChunker("size-" + chunkSize)
+                .build();
+    }
+
+    public Cid hash(byte[] data) {
+        try {
+            return hash(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer without changing its position.
+     */
+    public Cid hash(ByteBuffer data) {
+        ByteBuffer src = data.duplicate();
+        Dag dag = new Dag(this);
+        byte[] chunk = new byte[Math.min(chunkSize, Math.max(1, src.remaining()))];
+        while (src.hasRemaining()) {
+            int n = Math.min(chunkSize, src.remaining());
+            if (chunk.length < n)
+                chunk = new byte[n];
+            src.get(chunk, 0, n);
+            dag.leaf(chunk, n);
+        }
+        return dag.finish();
+    }
+
+    /**
+     * Hashes the file's content; the stream is opened and closed here.
+     */
+    public Cid hash(NamedStreamable file) throws IOException {
+        if (file.isDirectory())
+            throw new IllegalArgumentException("Directories are not supported");
+        try (InputStream in = file.getInputStream()) {
+            return hash(in);
+        }
+    }
+
+    /**
+     * Hashes the stream to its end; the stream is not closed.
+     */
+    public Cid hash(InputStream in) throws IOException {
+        Dag dag = new Dag(this);
+        byte[] chunk = new byte[chunkSize];
+        int n;
+        while ((n = in.readNBytes(chunk, 0, chunkSize)) > 0)
+            dag.leaf(chunk, n);
+        return dag.finish();
+    }
+
+    /*
+    Example usage:
+            UnixFsHasher hasher = UnixFsHasher.Builder.newInstance()
+                    .setCidVersion(1)
+                    .setChunker("size-262144")
+                    .build();
+            Cid cid = hasher.hash(bytes);
+     */
+    public static class Builder {
+        private int cidVersion = 1;
+        private Boolean rawLeaves;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+        private Builder() {}
+
+        public static Builder newInstance() {
+            return new Builder();
+        }
+
+        public Builder setCidVersion(int cidVersion) {
+            if (cidVersion != 0 && cidVersion != 1)
+                throw new IllegalArgumentException("CID version must be 0 or 1");
+            this.cidVersion = cidVersion;
+            return this;
+        }
+
+        /**
+         * Raw leaves are the default for CIDv1, dag-pb leaves for CIDv0, as in the daemon.
+         */
+        public Builder setRawLeaves(boolean rawLeaves) {
+            this.rawLeaves = rawLeaves;
+            return this;
+        }
+
+        public Builder setChunkSize(int chunkSize) {
+            if (chunkSize <= 0)
+                throw new IllegalArgumentException("chunk size must be positive");
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Accepts the daemon's fixed-size chunker specs, {@code "default"} or {@code "size-<bytes>"}.
+         */
+        public Builder setChunker(String chunker) {
+            if (chunker.equals("default"))
+                return setChunkSize(DEFAULT_CHUNK_SIZE);
+            if (!chunker.startsWith("size-"))
+                throw new IllegalArgumentException("Unsupported chunker: " + chunker);
+            try {
+                return setChunkSize(Integer.parseInt(chunker.substring("size-".length())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Unsupported chunker: " + chunker, e);
+            }
+        }
+
+        public UnixFsHasher build() {
+            return new UnixFsHasher(this);
+        }
+    }
+
+    // Builds the balanced DAG bottom-up as leaves arrive, keeping only unfinished nodes
+    private static final class Dag {
+        private final UnixFsHasher hasher;
+        private final MessageDigest sha256;
+        private final ProtoWriter out = new ProtoWriter();
+        private final ProtoWriter data = new ProtoWriter();
+        // levels.get(0) collects leaves, levels.get(k) collects nodes of height k
+        private final List<List<Link>> levels = new ArrayList<>();
+
+        Dag(UnixFsHasher hasher) {
+            this.hasher = hasher;
+            try {
+                this.sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+
+        void leaf(byte[] chunk, int length) {
+            add(0, leafLink(chunk, length));
+        }
+
+        Cid finish() {
+            if (levels.isEmpty())
+                return leafLink(new byte[0], 0).cid;
+            for (int k = 0; ; k++) {
+                List<Link> level = levels.get(k);
+                boolean top = k == levels.size() - 1;
+                if (top && level.size() == 1)
+                    return level.get(0).cid;
+                if (!level.isEmpty()) {
+                    Link node = node(level);
+                    level.clear();
+                    add(k + 1, node);
+                }
+            }
+        }
+
+        private void add(int height, Link link) {
+            if (levels.size() == height)
+                levels.add(new ArrayList<>(LINKS_PER_BLOCK));
+            List<Link> level = levels.get(height);
+            level.add(link);
+            // A full node can be closed right away; the root is only decided in finish()
+            if (level.size() == LINKS_PER_BLOCK) {
+                Link node = node(level);
+                level.clear();
+                add(height + 1, node);
+            }
+        }
+
+        private Link leafLink(byte[] chunk, int length) {
+            if (hasher.rawLeaves)
+                return new Link(cid(1, Cid.Codec.Raw, chunk, length), length, length);
+            // PBNode { Data: UnixFS { Type: File, Data: chunk, filesize } }
+            data.reset();
+            data.varintField(1, UNIXFS_FILE);
+            if (length > 0)
+                data.bytesField(2, chunk, 0, length);
+            data.varintField(3, length);
+            out.reset();
+            out.bytesField(1, data.buffer(), 0, data.size());
+            return new Link(cid(hasher.cidVersion, Cid.Codec.DagProtobuf, out.buffer(), out.size()), out.size(), length);
+        }
+
+        private Link node(List<Link> children) {
+            long fileSize = 0;
+            long childrenTsize = 0;
+            data.reset();
+            data.varintField(1, UNIXFS_FILE);
+            for (Link child : children)
+                fileSize += child.fileSize;
+            data.varintField(3, fileSize);
+            for (Link child : children)
+                data.varintField(4, child.fileSize);
+            // dag-pb writes the links before the data
+            out.reset();
+            for (Link child : children) {
+                byte[] cid = child.cid.toBytes();
+                int linkLength = 1 + ProtoWriter.varintSize(cid.length) + cid.length + 2
+                        + 1 + ProtoWriter.varintSize(child.tsize);
+                out.tag(2, 2);
+                out.varint(linkLength);
+                out.bytesField(1, cid, 0, cid.length);
+                // An empty name is still written, as the daemon does
+                out.tag(2, 2);
+                out.varint(0);
+                out.varintField(3, child.tsize);
+                childrenTsize += child.tsize;
+            }
+            out.bytesField(1, data.buffer(), 0, data.size());
+            Cid cid = cid(hasher.cidVersion, Cid.Codec.DagProtobuf, out.buffer(), out.size());
+            return new Link(cid, out.size() + childrenTsize, fileSize);
+        }
+
+        private Cid cid(int version, Cid.Codec codec, byte[] block, int length) {
+            sha256.reset();
+            sha256.update(block, 0, length);
+            byte[] digest = sha256.digest();
+            if (version == 0)
+                return Cid.buildCidV0(new Multihash(Multihash.Type.sha2_256, digest));
+            return new Cid(1, codec, Multihash.Type.sha2_256, digest);
+        }
+    }
+
+    // A child of a node: its CID, cumulative block size (Tsize) and file bytes below it
+    private static final class Link {
+        final Cid cid;
+        final long tsize;
+        final long fileSize;
+
+        Link(Cid cid, long tsize, long fileSize) {
+            this.cid = cid;
+            this.tsize = tsize;
+            this.fileSize = fileSize;
+        }
+    }
+
+    // Minimal protobuf encoder for the two messages involved, written into a reused buffer
+    private static final class ProtoWriter {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void tag(int field, int wireType) {
+            varint((field << 3) | wireType);
+        }
+
+        void varintField(int field, long value) {
+            tag(field, 0);
+            varint(value);
+        }
+
+        void bytesField(int field, byte[] b, int off, int len) {
+            tag(field, 2);
+            varint(len);
+            ensure(len);
+            System.arraycopy(b, off, buf, size, len);
+            size += len;
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        static int varintSize(long value) {
+            int n = 1;
+            while ((value & ~0x7FL) != 0) {
+                value >>>= 7;
+                n++;
+            }
+            return n;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}